@@ -3,6 +3,7 @@ plugins {
   alias(libs.plugins.publish.plugin)
   alias(libs.plugins.indra)
   alias(libs.plugins.indra.spotless)
+  alias(libs.plugins.jmh)
 }
 
 gradlePlugin {
@@ -40,6 +41,10 @@ publishing {
   }
 }
 
+jmh {
+  jmhVersion = libs.versions.jmh
+}
+
 indraSpotlessLicenser {
   licenseHeaderFile(rootProject.file("license_header.txt"))
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import org.jspecify.annotations.NullMarked;
+
+@NullMarked
+final class Bodies {
+  private Bodies() {
+  }
+
+  /**
+   * Writes a file of random bytes.
+   *
+   * @param path the file
+   * @param size the size in bytes
+   * @throws IOException if the file could not be written
+   */
+  static void randomFile(final Path path, final long size) throws IOException {
+    final SplittableRandom random = new SplittableRandom(size);
+    final byte[] buffer = new byte[64 * 1024];
+    try (final OutputStream out = Files.newOutputStream(path)) {
+      long remaining = size;
+      while (remaining > 0) {
+        random.nextBytes(buffer);
+        final int length = (int) Math.min(buffer.length, remaining);
+        out.write(buffer, 0, length);
+        remaining -= length;
+      }
+    }
+  }
+
+  /**
+   * Reads a body the way the http client does when sending it, discarding the bytes.
+   *
+   * @param publisher the body
+   * @return the number of bytes published
+   */
+  static long drain(final HttpRequest.BodyPublisher publisher) {
+    final CompletableFuture<Long> result = new CompletableFuture<>();
+    publisher.subscribe(new Flow.Subscriber<>() {
+      private long count;
+
+      @Override
+      public void onSubscribe(final Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+      }
+
+      @Override
+      public void onNext(final ByteBuffer item) {
+        this.count += item.remaining();
+      }
+
+      @Override
+      public void onError(final Throwable throwable) {
+        result.completeExceptionally(throwable);
+      }
+
+      @Override
+      public void onComplete() {
+        result.complete(this.count);
+      }
+    });
+    return result.join();
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.benchmark;
+
+import io.papermc.fill.gradle.git.CommitWalk;
+import io.papermc.fill.model.Commit;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.helpers.NOPLogger;
+
+/**
+ * Gathering commits from a synthetic repository, from {@code HEAD} back to the last published commit.
+ */
+@NullMarked
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CommitWalkBenchmark {
+  /**
+   * The number of commits in the repository.
+   */
+  @Param({"10000"})
+  public int history;
+
+  /**
+   * The number of commits since the last published commit, every commit is published when it equals the history.
+   */
+  @Param({"10", "1000", "10000"})
+  public int published;
+
+  private Path directory;
+  private Git git;
+  private @Nullable String last;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException, GitAPIException {
+    this.directory = Files.createTempDirectory("fill-walk");
+    this.git = Git.init().setDirectory(this.directory.toFile()).call();
+    final PersonIdent author = new PersonIdent("Fill", "fill@papermc.io");
+    String last = null;
+    for (int i = 0; i < this.history; i++) {
+      final RevCommit commit = this.git.commit()
+        .setAllowEmpty(true)
+        .setSign(false)
+        .setAuthor(author)
+        .setCommitter(author)
+        .setMessage("Commit " + i + "\n\nA longer description of the changes made in commit " + i + ".")
+        .call();
+      if (i == this.history - this.published - 1) {
+        last = commit.getName();
+      }
+    }
+    this.last = last;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    this.git.close();
+    try (final Stream<Path> files = Files.walk(this.directory)) {
+      for (final Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  @Benchmark
+  public List<Commit> walk() throws IOException {
+    return CommitWalk.walk(this.git.getRepository(), this.last, Integer.MAX_VALUE, NOPLogger.NOP_LOGGER);
+  }
+}
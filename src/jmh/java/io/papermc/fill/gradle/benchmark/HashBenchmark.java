@@ -0,0 +1,113 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.benchmark;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.papermc.fill.gradle.checksum.ChecksumAlgorithm;
+import io.papermc.fill.gradle.checksum.ChecksumFunction;
+import io.papermc.fill.gradle.checksum.TreeHashing;
+import io.papermc.fill.gradle.http.HashingBodyPublisher;
+import io.papermc.fill.model.Checksums;
+import io.papermc.fill.model.TreeChecksum;
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jspecify.annotations.NullMarked;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * SHA-256 over large files, both read on their own and while being published as a request body,
+ * every checksum algorithm computed in a single read compared to one read per algorithm, and the
+ * tree checksum hashing segments in parallel.
+ */
+@NullMarked
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class HashBenchmark {
+  private static final long TREE_SEGMENT_SIZE = 8 * 1024 * 1024;
+  // sha256 and every ChecksumAlgorithm
+  private static final List<HashFunction> SEPARATE_FUNCTIONS = List.of(Hashing.sha256(), Hashing.sha512(), Hashing.crc32c());
+
+  @Param({"1048576", "67108864", "268435456"})
+  public long size;
+
+  private Path file;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    this.file = Files.createTempFile("fill-hash", ".bin");
+    Bodies.randomFile(this.file, this.size);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(this.file);
+  }
+
+  @Benchmark
+  public HashCode file() throws IOException {
+    return com.google.common.io.Files.asByteSource(this.file.toFile()).hash(Hashing.sha256());
+  }
+
+  @Benchmark
+  public Checksums allChecksums() throws IOException {
+    final ChecksumFunction function = new ChecksumFunction(EnumSet.allOf(ChecksumAlgorithm.class));
+    return function.checksums(com.google.common.io.Files.asByteSource(this.file.toFile()).hash(function.function()));
+  }
+
+  @Benchmark
+  public void allChecksumsSeparately(final Blackhole blackhole) throws IOException {
+    // each algorithm alone, as a ChecksumFunction always computes sha256 as well
+    for (final HashFunction function : SEPARATE_FUNCTIONS) {
+      blackhole.consume(com.google.common.io.Files.asByteSource(this.file.toFile()).hash(function));
+    }
+  }
+
+  @Benchmark
+  public TreeChecksum tree() throws IOException {
+    return TreeHashing.hash(this.file, TREE_SEGMENT_SIZE);
+  }
+
+  @Benchmark
+  public HashCode publisher() throws IOException {
+    final HashingBodyPublisher publisher = new HashingBodyPublisher(HttpRequest.BodyPublishers.ofFile(this.file), Hashing.sha256());
+    Bodies.drain(publisher);
+    return publisher.hash();
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.papermc.fill.gradle.task.PublishToFillTask;
+import io.papermc.fill.model.BuildChannel;
+import io.papermc.fill.model.Checksums;
+import io.papermc.fill.model.Commit;
+import io.papermc.fill.model.Download;
+import io.papermc.fill.model.DownloadWithUrl;
+import io.papermc.fill.model.request.PublishRequest;
+import io.papermc.fill.model.response.v3.BuildResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.jspecify.annotations.NullMarked;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serializing publish requests with many commits, and deserializing long lists of builds.
+ */
+@NullMarked
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class JsonBenchmark {
+  private static final ObjectMapper MAPPER = PublishToFillTask.MapperHolder.MAPPER;
+  private static final TypeReference<List<BuildResponse>> BUILDS = new TypeReference<>() {};
+
+  /**
+   * The number of commits in the publish request, and of builds in the builds response.
+   */
+  @Param({"100", "1000", "10000"})
+  public int count;
+
+  private PublishRequest request;
+  private byte[] builds;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    final SplittableRandom random = new SplittableRandom(this.count);
+    final List<Commit> commits = new ArrayList<>();
+    for (int i = 0; i < this.count; i++) {
+      commits.add(commit(random, i));
+    }
+    final Checksums checksums = new Checksums(sha(random, 32));
+    this.request = new PublishRequest(
+      UUID.randomUUID(),
+      "paper",
+      "1.21",
+      "1.21.1",
+      this.count,
+      Instant.now(),
+      BuildChannel.STABLE,
+      commits,
+      Map.of("server:default", new Download("paper-1.21.1-" + this.count + ".jar", checksums, 50_000_000))
+    );
+
+    final List<BuildResponse> builds = new ArrayList<>();
+    for (int i = this.count; i > 0; i--) {
+      final String name = "paper-1.21.1-" + i + ".jar";
+      builds.add(new BuildResponse(
+        i,
+        Instant.now(),
+        BuildChannel.STABLE,
+        List.of(commit(random, i)),
+        Map.of("server:default", new DownloadWithUrl(name, new Checksums(sha(random, 32)), 50_000_000, URI.create("https://fill-data.papermc.io/v1/objects/" + name)))
+      ));
+    }
+    this.builds = MAPPER.writeValueAsBytes(builds);
+  }
+
+  private static Commit commit(final SplittableRandom random, final int index) {
+    return new Commit(sha(random, 20), Instant.ofEpochSecond(1_700_000_000L + index), "Commit " + index + "\n\nA longer description of the changes made in commit " + index + ".");
+  }
+
+  private static String sha(final SplittableRandom random, final int length) {
+    final byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return HexFormat.of().formatHex(bytes);
+  }
+
+  @Benchmark
+  public byte[] serializePublishRequest() throws IOException {
+    return MAPPER.writeValueAsBytes(this.request);
+  }
+
+  @Benchmark
+  public List<BuildResponse> deserializeBuilds() throws IOException {
+    return MAPPER.readValue(this.builds, BUILDS);
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.benchmark;
+
+import com.google.common.hash.Hashing;
+import io.papermc.fill.gradle.http.HashingBodyPublisher;
+import io.papermc.fill.gradle.http.MultipartBody;
+import io.papermc.fill.gradle.task.PublishToFillTask;
+import io.papermc.fill.model.request.UploadRequest;
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.jspecify.annotations.NullMarked;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building and streaming the multipart body of an upload, as sent to the api.
+ */
+@NullMarked
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MultipartBodyBenchmark {
+  @Param({"1048576", "67108864"})
+  public long size;
+
+  private Path file;
+  private String request;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    this.file = Files.createTempFile("fill-multipart", ".jar");
+    Bodies.randomFile(this.file, this.size);
+    this.request = PublishToFillTask.MapperHolder.MAPPER.writeValueAsString(new UploadRequest(UUID.randomUUID()));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(this.file);
+  }
+
+  @Benchmark
+  public long plain() throws IOException {
+    return Bodies.drain(MultipartBody.create()
+      .json("request", this.request)
+      .file("file", "server.jar", this.file)
+      .publisher());
+  }
+
+  @Benchmark
+  public long hashing() throws IOException {
+    return Bodies.drain(MultipartBody.create()
+      .json("request", this.request)
+      .file("file", "server.jar", new HashingBodyPublisher(HttpRequest.BodyPublishers.ofFile(this.file), Hashing.sha256()))
+      .publisher());
+  }
+}
@@ -15,13 +15,17 @@
  */
 package io.papermc.fill.gradle;
 
+import io.papermc.fill.gradle.checksum.ChecksumAlgorithm;
 import io.papermc.fill.model.BuildChannel;
+import java.time.Duration;
+import java.util.List;
 import org.gradle.api.Action;
 import org.gradle.api.Named;
 import org.gradle.api.NamedDomainObjectContainer;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.SetProperty;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.Nested;
@@ -140,6 +144,171 @@ public interface FillExtension {
   @Optional
   Property<String> getBuildTimestamp();
 
+  @Input
+  Property<Integer> getMaxCommits();
+
+  /**
+   * Set the maximum number of commits to publish with a build
+   *
+   * @param maxCommits the maximum number of commits
+   */
+  default void maxCommits(final int maxCommits) {
+    this.getMaxCommits().set(maxCommits);
+  }
+
+  Property<Integer> getUploadConcurrency();
+
+  /**
+   * Set the maximum number of downloads uploaded at the same time
+   *
+   * @param concurrency the concurrency
+   */
+  default void uploadConcurrency(final int concurrency) {
+    this.getUploadConcurrency().set(concurrency);
+  }
+
+  Property<Boolean> getAdaptiveUploadConcurrency();
+
+  /**
+   * Set whether the number of downloads uploaded at the same time adapts to how the api responds
+   *
+   * @param adaptive whether the upload concurrency is adaptive
+   */
+  default void adaptiveUploadConcurrency(final boolean adaptive) {
+    this.getAdaptiveUploadConcurrency().set(adaptive);
+  }
+
+  Property<Long> getUploadChunkSize();
+
+  /**
+   * Set the size of the chunks downloads are split into when uploading
+   *
+   * @param size the chunk size in bytes
+   */
+  default void uploadChunkSize(final long size) {
+    this.getUploadChunkSize().set(size);
+  }
+
+  Property<Boolean> getDeduplicateUploads();
+
+  /**
+   * Set whether to skip uploading downloads the api already has
+   *
+   * @param deduplicate whether to deduplicate uploads
+   */
+  default void deduplicateUploads(final boolean deduplicate) {
+    this.getDeduplicateUploads().set(deduplicate);
+  }
+
+  @Input
+  SetProperty<ChecksumAlgorithm> getChecksumAlgorithms();
+
+  /**
+   * Set the checksums published in addition to sha256
+   *
+   * @param algorithms the checksum algorithms
+   */
+  default void checksumAlgorithms(final ChecksumAlgorithm... algorithms) {
+    this.getChecksumAlgorithms().set(List.of(algorithms));
+  }
+
+  @Input
+  Property<Long> getTreeChecksumSegmentSize();
+
+  /**
+   * Set the segment size of a tree checksum published with every download
+   *
+   * @param size the segment size in bytes, at most {@code 2^31 - 1}
+   */
+  default void treeChecksumSegmentSize(final long size) {
+    this.getTreeChecksumSegmentSize().set(size);
+  }
+
+  Property<Long> getUploadBandwidth();
+
+  Property<Long> getUploadBurst();
+
+  /**
+   * Set the maximum rate at which uploads send bytes
+   *
+   * @param bytesPerSecond the rate in bytes per second
+   */
+  default void uploadBandwidth(final long bytesPerSecond) {
+    this.getUploadBandwidth().set(bytesPerSecond);
+  }
+
+  /**
+   * Set the maximum rate at which uploads send bytes, and how many bytes they may send at once
+   *
+   * @param bytesPerSecond the rate in bytes per second
+   * @param burst the burst in bytes
+   */
+  default void uploadBandwidth(final long bytesPerSecond, final long burst) {
+    this.getUploadBandwidth().set(bytesPerSecond);
+    this.getUploadBurst().set(burst);
+  }
+
+  Property<Duration> getConnectTimeout();
+
+  /**
+   * Set the timeout for connecting to the api
+   *
+   * @param timeout the timeout
+   */
+  default void connectTimeout(final Duration timeout) {
+    this.getConnectTimeout().set(timeout);
+  }
+
+  Property<Duration> getRequestTimeout();
+
+  /**
+   * Set the timeout for each request to the api
+   *
+   * @param timeout the timeout
+   */
+  default void requestTimeout(final Duration timeout) {
+    this.getRequestTimeout().set(timeout);
+  }
+
+  Property<Duration> getPublishTimeout();
+
+  /**
+   * Set how long a whole publish may take
+   *
+   * @param timeout the timeout
+   */
+  default void publishTimeout(final Duration timeout) {
+    this.getPublishTimeout().set(timeout);
+  }
+
+  Property<Duration> getUploadStallTimeout();
+
+  /**
+   * Set how long an upload may send nothing before it is failed and retried
+   *
+   * @param timeout the timeout
+   */
+  default void uploadStallTimeout(final Duration timeout) {
+    this.getUploadStallTimeout().set(timeout);
+  }
+
+  Property<Integer> getBuildsPageSize();
+
+  /**
+   * Set the number of builds requested at a time when looking for the last published commit
+   *
+   * @param size the page size
+   */
+  default void buildsPageSize(final int size) {
+    this.getBuildsPageSize().set(size);
+  }
+
+  Retry getRetry();
+
+  default void retry(final Action<? super Retry> action) {
+    action.execute(this.getRetry());
+  }
+
   @NullMarked
   interface Build {
     @Input
@@ -156,6 +325,40 @@ public interface FillExtension {
     }
   }
 
+  /**
+   * Controls how requests to the api are retried after transient failures.
+   */
+  @NullMarked
+  interface Retry {
+    /**
+     * The maximum number of attempts for each request, including the first one
+     *
+     * @return the maximum number of attempts
+     */
+    Property<Integer> getMaxAttempts();
+
+    /**
+     * The delay before the first retry, doubled for every following retry
+     *
+     * @return the base delay
+     */
+    Property<Duration> getBaseDelay();
+
+    /**
+     * The upper bound of the delay between two attempts
+     *
+     * @return the maximum delay
+     */
+    Property<Duration> getMaxDelay();
+
+    /**
+     * The fraction of the delay that is randomized, between {@code 0} and {@code 1}
+     *
+     * @return the jitter
+     */
+    Property<Double> getJitter();
+  }
+
   @NullMarked
   interface Download extends Named {
     @Input
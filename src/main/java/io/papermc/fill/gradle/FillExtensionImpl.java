@@ -15,13 +15,16 @@
  */
 package io.papermc.fill.gradle;
 
+import io.papermc.fill.gradle.checksum.ChecksumAlgorithm;
 import io.papermc.fill.model.BuildChannel;
 import javax.inject.Inject;
 import org.gradle.api.NamedDomainObjectContainer;
 import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.ProviderFactory;
+import org.gradle.api.provider.SetProperty;
 import org.jspecify.annotations.NullMarked;
+import java.time.Duration;
 import java.time.Instant;
 
 @NullMarked
@@ -32,7 +35,22 @@ public class FillExtensionImpl implements FillExtension {
   private final Property<String> family;
   private final Property<String> version;
   private final Property<String> buildTimestamp;
+  private final Property<Integer> maxCommits;
+  private final Property<Integer> uploadConcurrency;
+  private final Property<Boolean> adaptiveUploadConcurrency;
+  private final Property<Long> uploadChunkSize;
+  private final Property<Boolean> deduplicateUploads;
+  private final SetProperty<ChecksumAlgorithm> checksumAlgorithms;
+  private final Property<Long> treeChecksumSegmentSize;
+  private final Property<Duration> connectTimeout;
+  private final Property<Duration> requestTimeout;
+  private final Property<Duration> uploadStallTimeout;
+  private final Property<Duration> publishTimeout;
+  private final Property<Long> uploadBandwidth;
+  private final Property<Long> uploadBurst;
+  private final Property<Integer> buildsPageSize;
   private final Build build;
+  private final Retry retry;
 
   @Inject
   public FillExtensionImpl(final ObjectFactory objects, final ProviderFactory providers) {
@@ -42,9 +60,24 @@ public class FillExtensionImpl implements FillExtension {
     this.family = objects.property(String.class);
     this.version = objects.property(String.class);
     this.build = objects.newInstance(BuildImpl.class);
+    this.retry = objects.newInstance(RetryImpl.class);
     this.buildTimestamp = objects.property(String.class)
       .convention(providers.environmentVariable("BUILD_STARTED_AT")
         .orElse(providers.gradleProperty("BUILD_STARTED_AT")));
+    this.maxCommits = objects.property(Integer.class).convention(1000);
+    this.uploadConcurrency = objects.property(Integer.class).convention(4);
+    this.adaptiveUploadConcurrency = objects.property(Boolean.class).convention(false);
+    this.uploadChunkSize = objects.property(Long.class);
+    this.deduplicateUploads = objects.property(Boolean.class).convention(false);
+    this.checksumAlgorithms = objects.setProperty(ChecksumAlgorithm.class);
+    this.treeChecksumSegmentSize = objects.property(Long.class);
+    this.connectTimeout = objects.property(Duration.class).convention(Duration.ofSeconds(30));
+    this.requestTimeout = objects.property(Duration.class);
+    this.uploadStallTimeout = objects.property(Duration.class);
+    this.publishTimeout = objects.property(Duration.class);
+    this.uploadBandwidth = objects.property(Long.class);
+    this.uploadBurst = objects.property(Long.class);
+    this.buildsPageSize = objects.property(Integer.class);
   }
 
   @Override
@@ -82,6 +115,81 @@ public class FillExtensionImpl implements FillExtension {
     return this.buildTimestamp;
   }
 
+  @Override
+  public Property<Integer> getMaxCommits() {
+    return this.maxCommits;
+  }
+
+  @Override
+  public Property<Integer> getUploadConcurrency() {
+    return this.uploadConcurrency;
+  }
+
+  @Override
+  public Property<Boolean> getAdaptiveUploadConcurrency() {
+    return this.adaptiveUploadConcurrency;
+  }
+
+  @Override
+  public Property<Long> getUploadChunkSize() {
+    return this.uploadChunkSize;
+  }
+
+  @Override
+  public Property<Boolean> getDeduplicateUploads() {
+    return this.deduplicateUploads;
+  }
+
+  @Override
+  public SetProperty<ChecksumAlgorithm> getChecksumAlgorithms() {
+    return this.checksumAlgorithms;
+  }
+
+  @Override
+  public Property<Long> getTreeChecksumSegmentSize() {
+    return this.treeChecksumSegmentSize;
+  }
+
+  @Override
+  public Property<Duration> getConnectTimeout() {
+    return this.connectTimeout;
+  }
+
+  @Override
+  public Property<Duration> getRequestTimeout() {
+    return this.requestTimeout;
+  }
+
+  @Override
+  public Property<Long> getUploadBandwidth() {
+    return this.uploadBandwidth;
+  }
+
+  @Override
+  public Property<Long> getUploadBurst() {
+    return this.uploadBurst;
+  }
+
+  @Override
+  public Property<Duration> getPublishTimeout() {
+    return this.publishTimeout;
+  }
+
+  @Override
+  public Property<Duration> getUploadStallTimeout() {
+    return this.uploadStallTimeout;
+  }
+
+  @Override
+  public Property<Integer> getBuildsPageSize() {
+    return this.buildsPageSize;
+  }
+
+  @Override
+  public Retry getRetry() {
+    return this.retry;
+  }
+
   @NullMarked
   public static class BuildImpl implements Build {
     private final Property<Integer> id;
@@ -110,4 +218,40 @@ public class FillExtensionImpl implements FillExtension {
       return this.downloads;
     }
   }
+
+  @NullMarked
+  public static class RetryImpl implements Retry {
+    private final Property<Integer> maxAttempts;
+    private final Property<Duration> baseDelay;
+    private final Property<Duration> maxDelay;
+    private final Property<Double> jitter;
+
+    @Inject
+    public RetryImpl(final ObjectFactory objects) {
+      this.maxAttempts = objects.property(Integer.class).convention(3);
+      this.baseDelay = objects.property(Duration.class).convention(Duration.ofSeconds(1));
+      this.maxDelay = objects.property(Duration.class).convention(Duration.ofSeconds(30));
+      this.jitter = objects.property(Double.class).convention(0.5);
+    }
+
+    @Override
+    public Property<Integer> getMaxAttempts() {
+      return this.maxAttempts;
+    }
+
+    @Override
+    public Property<Duration> getBaseDelay() {
+      return this.baseDelay;
+    }
+
+    @Override
+    public Property<Duration> getMaxDelay() {
+      return this.maxDelay;
+    }
+
+    @Override
+    public Property<Double> getJitter() {
+      return this.jitter;
+    }
+  }
 }
@@ -15,12 +15,19 @@
  */
 package io.papermc.fill.gradle;
 
+import io.papermc.fill.gradle.http.RetryPolicy;
+import io.papermc.fill.gradle.service.FillService;
+import io.papermc.fill.gradle.task.FlushFillSpoolTask;
 import io.papermc.fill.gradle.task.PublishToFillTask;
+import java.io.File;
+import java.util.Objects;
 import net.kyori.mammoth.Extensions;
 import net.kyori.mammoth.ProjectPlugin;
 import org.gradle.api.Project;
+import org.gradle.api.file.Directory;
 import org.gradle.api.plugins.ExtensionContainer;
 import org.gradle.api.plugins.PluginContainer;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.TaskContainer;
 import org.jspecify.annotations.NullMarked;
 
@@ -35,8 +42,115 @@ public class FillPlugin implements ProjectPlugin {
   ) {
     final FillExtension extension = Extensions.findOrCreate(extensions, FillExtension.NAME, FillExtension.class, FillExtensionImpl.class);
 
-    tasks.register(PublishToFillTask.NAME, PublishToFillTask.class, task -> {
-      task.getExtension().set(extension);
+    final File cacheDirectory = new File(project.getGradle().getGradleUserHomeDir(), "caches/fill-gradle");
+
+    // the first project to apply the plugin configures the shared client
+    project.getGradle().getSharedServices().registerIfAbsent(FillService.NAME, FillService.class, spec -> {
+      spec.getParameters().getConnectTimeout().set(extension.getConnectTimeout());
+      spec.getParameters().getCacheDirectory().set(cacheDirectory);
+      spec.getParameters().getUploadBandwidth().set(extension.getUploadBandwidth());
+      spec.getParameters().getUploadBurst().set(extension.getUploadBurst());
+    });
+    final FillService.Parameters service = (FillService.Parameters) project.getGradle().getSharedServices().getRegistrations().getByName(FillService.NAME).getParameters();
+    project.afterEvaluate(evaluated -> {
+      warnIfIgnored(project, "connectTimeout", extension.getConnectTimeout(), service.getConnectTimeout());
+      warnIfIgnored(project, "uploadBandwidth", extension.getUploadBandwidth(), service.getUploadBandwidth());
+      warnIfIgnored(project, "uploadBurst", extension.getUploadBurst(), service.getUploadBurst());
     });
+
+    final File checksumCache = new File(cacheDirectory, "checksums.json");
+
+    final Provider<Boolean> progressLoggers = project.getProviders().gradleProperty(PublishToFillTask.PROGRESS_LOGGERS).map(Boolean::parseBoolean);
+
+    final Directory spoolDirectory = project.getLayout().getSettingsDirectory().dir(".gradle/fill-spool");
+
+    tasks.register(PublishToFillTask.NAME, PublishToFillTask.class, task -> configurePublish(project, extension, task, checksumCache, spoolDirectory, progressLoggers, false));
+    tasks.register(PublishToFillTask.STAGE_NAME, PublishToFillTask.class, task -> {
+      task.setDescription("Stage a publish to Fill, to be published by " + FlushFillSpoolTask.NAME);
+      configurePublish(project, extension, task, checksumCache, spoolDirectory, progressLoggers, true);
+    });
+    tasks.register(FlushFillSpoolTask.NAME, FlushFillSpoolTask.class, task -> {
+      task.getApiUrl().set(extension.getApiUrl());
+      task.getApiToken().set(extension.getApiToken());
+      task.getUploadConcurrency().set(extension.getUploadConcurrency());
+      task.getAdaptiveUploadConcurrency().set(extension.getAdaptiveUploadConcurrency());
+      task.getUploadChunkSize().set(extension.getUploadChunkSize());
+      task.getRequestTimeout().set(extension.getRequestTimeout());
+      task.getUploadStallTimeout().set(extension.getUploadStallTimeout());
+      task.getProgressLoggers().set(progressLoggers);
+      task.getPublishTimeout().set(extension.getPublishTimeout());
+      task.getRetryPolicy().set(project.provider(() -> retryPolicy(extension.getRetry())));
+      task.getSpoolDirectory().convention(spoolDirectory);
+      task.getChecksumCacheFile().set(checksumCache);
+    });
+  }
+
+  private static void configurePublish(
+    final Project project,
+    final FillExtension extension,
+    final PublishToFillTask task,
+    final File checksumCache,
+    final Directory spoolDirectory,
+    final Provider<Boolean> progressLoggers,
+    final boolean stage
+  ) {
+    // the task only holds values and providers, so it can be stored in the configuration cache
+    task.getApiUrl().set(extension.getApiUrl());
+    task.getApiToken().set(extension.getApiToken());
+    task.getProjectId().set(extension.getProject());
+    task.getVersionFamily().set(extension.getVersionFamily());
+    task.getVersion().set(extension.getVersion());
+    task.getBuildId().set(extension.getBuild().getId());
+    task.getBuildChannel().set(extension.getBuild().getChannel());
+    task.getBuildTimestamp().set(extension.getBuildTimestamp());
+    task.getMaxCommits().set(extension.getMaxCommits());
+    task.getUploadConcurrency().set(extension.getUploadConcurrency());
+    task.getAdaptiveUploadConcurrency().set(extension.getAdaptiveUploadConcurrency());
+    task.getUploadChunkSize().set(extension.getUploadChunkSize());
+    task.getDeduplicateUploads().set(extension.getDeduplicateUploads());
+    task.getChecksumAlgorithms().set(extension.getChecksumAlgorithms());
+    task.getTreeChecksumSegmentSize().set(extension.getTreeChecksumSegmentSize());
+    task.getRequestTimeout().set(extension.getRequestTimeout());
+    task.getUploadStallTimeout().set(extension.getUploadStallTimeout());
+    task.getProgressLoggers().set(progressLoggers);
+    task.getPublishTimeout().set(extension.getPublishTimeout());
+    task.getBuildsPageSize().set(extension.getBuildsPageSize());
+    task.getRetryPolicy().set(project.provider(() -> retryPolicy(extension.getRetry())));
+    task.getStage().set(stage);
+    task.getSpoolDirectory().convention(spoolDirectory);
+    task.getRepositoryDirectory().convention(project.getLayout().getSettingsDirectory());
+    task.getChecksumCacheFile().convention(project.getLayout().file(project.provider(() -> checksumCache)));
+    task.getJournalDirectory().convention(project.getLayout().getBuildDirectory().dir("fill/publish-journal"));
+    task.getReportFile().convention(project.getLayout().getBuildDirectory().file(stage ? "fill/stage-report.json" : "fill/publish-report.json"));
+    extension.getBuild().getDownloads().all(download -> {
+      final PublishToFillTask.DownloadSpec spec = project.getObjects().newInstance(PublishToFillTask.DownloadSpec.class);
+      spec.getKey().set(download.getName());
+      // the resolver is called while configuring, only the resolved name is stored
+      spec.getFileName().set(project.provider(() -> download.getNameResolver().get().name(
+        extension.getProject().get(),
+        extension.getVersionFamily().get(),
+        extension.getVersion().get(),
+        extension.getBuild().getId().get()
+      )));
+      spec.getFile().set(download.getFile());
+      task.getDownloads().add(spec);
+    });
+  }
+
+  private static <T> void warnIfIgnored(final Project project, final String name, final Provider<T> configured, final Provider<T> shared) {
+    final T value = configured.getOrNull();
+    final T used = shared.getOrNull();
+    if (!Objects.equals(value, used)) {
+      project.getLogger().warn("The fill {} of {} is {}, but the client shared by all projects uses {} from the first project that applied the plugin", name, project.getPath(), value, used);
+    }
+  }
+
+  private static RetryPolicy retryPolicy(final FillExtension.Retry retry) {
+    return new RetryPolicy(
+      retry.getMaxAttempts().get(),
+      retry.getBaseDelay().get(),
+      retry.getMaxDelay().get(),
+      retry.getJitter().get()
+    );
   }
 }
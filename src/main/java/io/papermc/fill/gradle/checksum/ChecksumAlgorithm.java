@@ -0,0 +1,73 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.checksum;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.papermc.fill.model.Checksums;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A checksum published in addition to the sha256 checksum every download has.
+ */
+@NullMarked
+public enum ChecksumAlgorithm {
+  SHA512(Hashing.sha512()) {
+    @Override
+    public @Nullable String get(final Checksums checksums) {
+      return checksums.sha512();
+    }
+  },
+  /**
+   * A fast, non-cryptographic checksum for quick integrity checks, formatted as
+   * the usual big-endian hex string.
+   */
+  CRC32C(Hashing.crc32c()) {
+    @Override
+    String format(final HashCode hash) {
+      return String.format("%08x", hash.asInt());
+    }
+
+    @Override
+    public @Nullable String get(final Checksums checksums) {
+      return checksums.crc32c();
+    }
+  };
+
+  private final HashFunction function;
+
+  ChecksumAlgorithm(final HashFunction function) {
+    this.function = function;
+  }
+
+  HashFunction function() {
+    return this.function;
+  }
+
+  String format(final HashCode hash) {
+    return hash.toString();
+  }
+
+  /**
+   * Gets the checksum of this algorithm.
+   *
+   * @param checksums the checksums
+   * @return the checksum, or {@code null} if not computed
+   */
+  public abstract @Nullable String get(final Checksums checksums);
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.checksum;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.papermc.fill.gradle.task.PublishToFillTask;
+import io.papermc.fill.model.Checksums;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A persistent cache of file checksums, keyed by the real path of a file and
+ * validated against its size, modification time and file key.
+ *
+ * <p>The least recently used entries are evicted once the cache holds more than
+ * {@link #MAX_ENTRIES} files.</p>
+ */
+@NullMarked
+public final class ChecksumCache {
+  public static final int MAX_ENTRIES = 1024;
+  private static final int VERSION = 2;
+  private static final ObjectMapper MAPPER = PublishToFillTask.MapperHolder.MAPPER;
+  // file locks are held by the whole jvm, so tasks in the same build have to take turns
+  private static final Object SAVE_LOCK = new Object();
+  private final Path file;
+  private final Map<String, Entry> entries;
+  private final Map<String, Entry> updated = new HashMap<>();
+
+  private ChecksumCache(final Path file, final Map<String, Entry> entries) {
+    this.file = file;
+    this.entries = entries;
+  }
+
+  /**
+   * Loads the cache from disk. A missing or unreadable cache file results in an empty cache.
+   *
+   * @param file the cache file
+   * @return the cache
+   */
+  public static ChecksumCache load(final Path file) {
+    return new ChecksumCache(file, new HashMap<>(read(file)));
+  }
+
+  /**
+   * Gets the cached checksum of a file, if the file did not change since it was cached.
+   *
+   * @param path the file
+   * @return the cached checksum, or {@code null} if not cached
+   * @throws IOException if the file attributes could not be read
+   */
+  public synchronized @Nullable Checksum get(final Path path) throws IOException {
+    final Path real = path.toRealPath();
+    final BasicFileAttributes attributes = Files.readAttributes(real, BasicFileAttributes.class);
+    final String key = real.toString();
+    final Entry entry = this.entries.get(key);
+    if (entry == null || !entry.matches(attributes)) {
+      return null;
+    }
+    final Entry used = entry.used(System.currentTimeMillis());
+    this.entries.put(key, used);
+    this.updated.put(key, used);
+    return new Checksum(entry.checksums(), entry.size());
+  }
+
+  /**
+   * Reads the attributes of a file a checksum is cached under, which have to be read before the file is hashed.
+   *
+   * @param path the file
+   * @return the attributes
+   * @throws IOException if the file attributes could not be read
+   */
+  public static BasicFileAttributes attributes(final Path path) throws IOException {
+    return Files.readAttributes(path.toRealPath(), BasicFileAttributes.class);
+  }
+
+  /**
+   * Caches the checksum of a file.
+   *
+   * <p>The checksum is only cached if the file still has the attributes it had before it was hashed, as it
+   * could have been rewritten while it was hashed.</p>
+   *
+   * @param path the file
+   * @param attributes the attributes of the file before it was hashed, from {@link #attributes(Path)}
+   * @param checksum the checksum
+   * @throws IOException if the file attributes could not be read
+   */
+  public synchronized void put(final Path path, final BasicFileAttributes attributes, final Checksum checksum) throws IOException {
+    final Path real = path.toRealPath();
+    final Entry entry = new Entry(
+      attributes.size(),
+      lastModified(attributes),
+      fileKey(attributes),
+      checksum.checksums(),
+      System.currentTimeMillis()
+    );
+    if (attributes.size() != checksum.size() || !entry.matches(Files.readAttributes(real, BasicFileAttributes.class))) {
+      return;
+    }
+    this.entries.put(real.toString(), entry);
+    this.updated.put(real.toString(), entry);
+  }
+
+  /**
+   * Writes the entries used or added since the cache was loaded to disk, merging them with
+   * any entries written by other builds in the meantime.
+   *
+   * @throws IOException if the cache could not be written
+   */
+  public synchronized void save() throws IOException {
+    if (this.updated.isEmpty()) {
+      return;
+    }
+    Files.createDirectories(this.file.getParent());
+    final Path lockFile = this.file.resolveSibling(this.file.getFileName() + ".lock");
+    synchronized (SAVE_LOCK) {
+      try (
+        final FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        final FileLock ignored = channel.lock()
+      ) {
+        final Map<String, Entry> merged = new HashMap<>(read(this.file));
+        this.updated.forEach((key, entry) -> merged.merge(key, entry, (a, b) -> a.lastUsed() >= b.lastUsed() ? a : b));
+        final Map<String, Entry> retained = new LinkedHashMap<>();
+        merged.entrySet().stream()
+          .sorted(Comparator.comparingLong((Map.Entry<String, Entry> e) -> e.getValue().lastUsed()).reversed())
+          .limit(MAX_ENTRIES)
+          .forEach(e -> retained.put(e.getKey(), e.getValue()));
+
+        final Path temp = Files.createTempFile(this.file.getParent(), this.file.getFileName().toString(), ".tmp");
+        try {
+          MAPPER.writeValue(temp.toFile(), new Contents(VERSION, retained));
+          Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+          Files.deleteIfExists(temp);
+        }
+      }
+    }
+    this.updated.clear();
+  }
+
+  private static Map<String, Entry> read(final Path file) {
+    if (!Files.isRegularFile(file)) {
+      return Map.of();
+    }
+    try {
+      final Contents contents = MAPPER.readValue(file.toFile(), Contents.class);
+      if (contents.version() == VERSION) {
+        return contents.entries();
+      }
+    } catch (final IOException ignored) {
+      // corrupt or unreadable, start over
+    }
+    return Map.of();
+  }
+
+  private static long lastModified(final BasicFileAttributes attributes) {
+    return attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+  }
+
+  private static @Nullable String fileKey(final BasicFileAttributes attributes) {
+    final Object key = attributes.fileKey();
+    return key != null ? key.toString() : null;
+  }
+
+  /**
+   * A cached checksum.
+   *
+   * @param checksums the checksums
+   * @param size the file size
+   */
+  @NullMarked
+  public record Checksum(
+    Checksums checksums,
+    long size
+  ) {
+  }
+
+  @NullMarked
+  record Contents(
+    int version,
+    Map<String, Entry> entries
+  ) {
+  }
+
+  @NullMarked
+  record Entry(
+    long size,
+    long lastModified,
+    @Nullable String fileKey,
+    Checksums checksums,
+    long lastUsed
+  ) {
+    boolean matches(final BasicFileAttributes attributes) {
+      return this.size == attributes.size()
+        && this.lastModified == ChecksumCache.lastModified(attributes)
+        && Objects.equals(this.fileKey, ChecksumCache.fileKey(attributes));
+    }
+
+    Entry used(final long time) {
+      return new Entry(this.size, this.lastModified, this.fileKey, this.checksums, time);
+    }
+  }
+}
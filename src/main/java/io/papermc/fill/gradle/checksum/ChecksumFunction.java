@@ -0,0 +1,141 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.checksum;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.papermc.fill.model.Checksums;
+import io.papermc.fill.model.TreeChecksum;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Computes the sha256 checksum and any number of additional checksums of the same bytes at once.
+ *
+ * <p>Every buffer is handed to each algorithm in turn while it is still in cache, so adding
+ * algorithms does not add passes over the file. The optional {@link TreeChecksum tree checksum}
+ * is the exception, it reads the file on its own, in parallel.</p>
+ */
+@NullMarked
+public final class ChecksumFunction {
+  private static final HashFunction SHA256 = Hashing.sha256();
+  private final Set<ChecksumAlgorithm> algorithms;
+  private final HashFunction function;
+  private final @Nullable Long treeSegmentSize;
+
+  public ChecksumFunction(final Collection<ChecksumAlgorithm> algorithms) {
+    this(algorithms, null);
+  }
+
+  public ChecksumFunction(final Collection<ChecksumAlgorithm> algorithms, final @Nullable Long treeSegmentSize) {
+    this.treeSegmentSize = treeSegmentSize;
+    this.algorithms = algorithms.isEmpty() ? EnumSet.noneOf(ChecksumAlgorithm.class) : EnumSet.copyOf(algorithms);
+    if (this.algorithms.isEmpty()) {
+      this.function = SHA256;
+    } else {
+      final List<HashFunction> functions = new ArrayList<>();
+      functions.add(SHA256);
+      for (final ChecksumAlgorithm algorithm : this.algorithms) {
+        functions.add(algorithm.function());
+      }
+      this.function = Hashing.concatenating(functions);
+    }
+  }
+
+  /**
+   * Gets the hash function computing every checksum, its hash is split up by {@link #checksums(HashCode)}.
+   *
+   * @return the hash function
+   */
+  public HashFunction function() {
+    return this.function;
+  }
+
+  /**
+   * Computes the tree checksum of a file, if enabled.
+   *
+   * @param file the file
+   * @return the tree checksum, or {@code null} if not enabled
+   * @throws IOException if the file could not be read
+   */
+  public @Nullable TreeChecksum tree(final Path file) throws IOException {
+    return this.treeSegmentSize != null ? TreeHashing.hash(file, this.treeSegmentSize) : null;
+  }
+
+  /**
+   * Splits a hash computed by {@link #function()} into its checksums.
+   *
+   * @param hash the hash
+   * @return the checksums
+   */
+  public Checksums checksums(final HashCode hash) {
+    return this.checksums(hash, null);
+  }
+
+  /**
+   * Splits a hash computed by {@link #function()} into its checksums.
+   *
+   * @param hash the hash
+   * @param tree the tree checksum computed by {@link #tree(Path)}
+   * @return the checksums
+   */
+  public Checksums checksums(final HashCode hash, final @Nullable TreeChecksum tree) {
+    final byte[] bytes = hash.asBytes();
+    int offset = SHA256.bits() / Byte.SIZE;
+    final String sha256 = HashCode.fromBytes(slice(bytes, 0, offset)).toString();
+    final Map<ChecksumAlgorithm, String> additional = new EnumMap<>(ChecksumAlgorithm.class);
+    for (final ChecksumAlgorithm algorithm : this.algorithms) {
+      final int length = algorithm.function().bits() / Byte.SIZE;
+      additional.put(algorithm, algorithm.format(HashCode.fromBytes(slice(bytes, offset, length))));
+      offset += length;
+    }
+    return new Checksums(sha256, additional.get(ChecksumAlgorithm.SHA512), additional.get(ChecksumAlgorithm.CRC32C), tree);
+  }
+
+  /**
+   * Checks whether checksums include every algorithm of this function.
+   *
+   * @param checksums the checksums
+   * @return whether the checksums are complete
+   */
+  public boolean covers(final Checksums checksums) {
+    if (this.treeSegmentSize != null && (checksums.tree() == null || checksums.tree().segmentSize() != this.treeSegmentSize)) {
+      return false;
+    }
+    for (final ChecksumAlgorithm algorithm : this.algorithms) {
+      if (algorithm.get(checksums) == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static byte[] slice(final byte[] bytes, final int offset, final int length) {
+    final byte[] slice = new byte[length];
+    System.arraycopy(bytes, offset, slice, 0, length);
+    return slice;
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.checksum;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.papermc.fill.model.TreeChecksum;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Computes {@link TreeChecksum tree checksums}, hashing the segments of a file in parallel.
+ */
+@NullMarked
+public final class TreeHashing {
+  private static final HashFunction SHA256 = Hashing.sha256();
+  private static final byte LEAF = 0x00;
+  private static final byte NODE = 0x01;
+
+  private TreeHashing() {
+  }
+
+  /**
+   * Computes the tree checksum of a file.
+   *
+   * <p>Every segment is memory mapped and hashed on its own, on the common fork join pool.</p>
+   *
+   * @param file the file
+   * @param segmentSize the segment size, at most {@link Integer#MAX_VALUE}
+   * @return the tree checksum
+   * @throws IOException if the file could not be read
+   */
+  public static TreeChecksum hash(final Path file, final long segmentSize) throws IOException {
+    if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Segment size must be between 1 and " + Integer.MAX_VALUE + " bytes, was " + segmentSize);
+    }
+    final HashCode[] leaves;
+    try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      // an empty file still has a single, empty segment
+      leaves = new HashCode[Math.max(1, Math.toIntExact((size + segmentSize - 1) / segmentSize))];
+      IntStream.range(0, leaves.length).parallel().forEach(index -> {
+        final long offset = index * segmentSize;
+        try {
+          leaves[index] = SHA256.newHasher()
+            .putByte(LEAF)
+            .putBytes(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(segmentSize, size - offset)))
+            .hash();
+        } catch (final IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (final UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return new TreeChecksum(segmentSize, root(Arrays.asList(leaves)).toString(), Arrays.stream(leaves).map(HashCode::toString).toList());
+  }
+
+  static HashCode root(final List<HashCode> leaves) {
+    List<HashCode> level = leaves;
+    while (level.size() > 1) {
+      final List<HashCode> parents = new ArrayList<>((level.size() + 1) / 2);
+      for (int i = 0; i < level.size(); i += 2) {
+        if (i + 1 < level.size()) {
+          parents.add(SHA256.newHasher()
+            .putByte(NODE)
+            .putBytes(level.get(i).asBytes())
+            .putBytes(level.get(i + 1).asBytes())
+            .hash());
+        } else {
+          parents.add(level.get(i));
+        }
+      }
+      level = parents;
+    }
+    return level.getFirst();
+  }
+}
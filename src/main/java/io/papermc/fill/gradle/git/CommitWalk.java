@@ -0,0 +1,106 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.git;
+
+import io.papermc.fill.model.Commit;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+
+/**
+ * Gathers the commits to publish with a build, from {@code HEAD} back to the last published commit.
+ */
+@NullMarked
+public final class CommitWalk {
+  private CommitWalk() {
+  }
+
+  /**
+   * Gathers the commits made since the last published commit, newest first.
+   *
+   * <p>When the last published commit is not in the local history, or the history is a shallow clone,
+   * the walk stops after {@code maxCommits} commits or at the boundary of the clone.</p>
+   *
+   * @param repository the repository
+   * @param lastCommit the last published commit, or {@code null} if nothing was published yet
+   * @param maxCommits the maximum number of commits to gather
+   * @param logger the logger warnings are reported to
+   * @return the commits
+   * @throws IOException if the history could not be read
+   */
+  public static List<Commit> walk(final Repository repository, final @Nullable String lastCommit, final int maxCommits, final Logger logger) throws IOException {
+    // jgit only reads the commit-graph file written by git when enabled, this is not saved
+    repository.getConfig().setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null, ConfigConstants.CONFIG_COMMIT_GRAPH, true);
+    final List<Commit> commits = new ArrayList<>();
+    try (final RevWalk revWalk = new RevWalk(repository)) {
+      // message bodies are only parsed for the commits that get published
+      revWalk.setRetainBody(false);
+      final RevCommit currentCommit = revWalk.parseCommit(repository.exactRef(Constants.HEAD).getObjectId());
+      revWalk.markStart(currentCommit);
+
+      if (lastCommit != null) {
+        final RevCommit lastBuildCommit = findCommit(repository, revWalk, lastCommit);
+        if (lastBuildCommit != null) {
+          revWalk.markUninteresting(lastBuildCommit);
+        } else {
+          logger.warn("Last published commit {} is not in the local history, publishing at most {} commits", lastCommit, maxCommits);
+        }
+      }
+
+      final Set<ObjectId> shallowCommits = repository.getObjectDatabase().getShallowCommits();
+      for (final RevCommit commit : revWalk) {
+        if (commits.size() >= maxCommits) {
+          logger.warn("Stopped gathering commits after {} commits", maxCommits);
+          break;
+        }
+        revWalk.parseBody(commit);
+        commits.add(new Commit(
+          commit.getName(),
+          commit.getAuthorIdent().getWhenAsInstant(),
+          commit.getFullMessage()
+        ));
+        commit.disposeBody();
+        if (shallowCommits.contains(commit)) {
+          logger.warn("Reached the boundary of a shallow clone at {}, older commits are not published", commit.getName());
+        }
+      }
+    }
+    return commits;
+  }
+
+  private static @Nullable RevCommit findCommit(final Repository repository, final RevWalk revWalk, final String sha) throws IOException {
+    final ObjectId id = repository.resolve(sha);
+    if (id == null) {
+      return null;
+    }
+    try {
+      return revWalk.parseCommit(id);
+    } catch (final MissingObjectException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.http;
+
+import java.io.Serializable;
+import java.net.http.HttpRequest;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * The point in time a series of requests has to be done by, such as every request of a publish.
+ *
+ * <p>Requests sent before the deadline get at most the remaining time as their timeout, and are not
+ * retried when the delay before the retry would pass the deadline.</p>
+ *
+ * @param at the deadline, or {@code null} for none
+ */
+@NullMarked
+public record Deadline(
+  @Nullable Instant at
+) implements Serializable {
+  public static final Deadline NONE = new Deadline(null);
+
+  /**
+   * Creates a deadline a duration from now.
+   *
+   * @param budget the duration, or {@code null} for no deadline
+   * @return the deadline
+   */
+  public static Deadline after(final @Nullable Duration budget) {
+    return budget != null ? new Deadline(Instant.now().plus(budget)) : NONE;
+  }
+
+  /**
+   * Gets the time left until the deadline.
+   *
+   * @return the remaining time, zero once passed, or {@code null} if there is no deadline
+   */
+  public @Nullable Duration remaining() {
+    if (this.at == null) {
+      return null;
+    }
+    final Duration remaining = Duration.between(Instant.now(), this.at);
+    return remaining.isNegative() ? Duration.ZERO : remaining;
+  }
+
+  /**
+   * Checks whether the deadline passed.
+   *
+   * @return whether the deadline passed
+   */
+  public boolean expired() {
+    final Duration remaining = this.remaining();
+    return remaining != null && remaining.isZero();
+  }
+
+  /**
+   * Checks whether waiting for a delay still ends before the deadline.
+   *
+   * @param delay the delay
+   * @return whether the delay ends before the deadline
+   */
+  public boolean allows(final Duration delay) {
+    final Duration remaining = this.remaining();
+    return remaining == null || delay.compareTo(remaining) < 0;
+  }
+
+  /**
+   * Bounds the timeout of a request by the remaining time.
+   *
+   * @param request the request
+   * @return the request, with a shorter timeout if needed
+   * @throws HttpTimeoutException if the deadline passed
+   */
+  public HttpRequest bound(final HttpRequest request) throws HttpTimeoutException {
+    final Duration remaining = this.remaining();
+    if (remaining == null) {
+      return request;
+    }
+    if (remaining.isZero()) {
+      throw new HttpTimeoutException("The publish timeout passed before sending the request");
+    }
+    final Optional<Duration> timeout = request.timeout();
+    if (timeout.isPresent() && timeout.get().compareTo(remaining) <= 0) {
+      return request;
+    }
+    return HttpRequest.newBuilder(request, (name, value) -> true)
+      .timeout(remaining)
+      .build();
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.http;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import java.nio.ByteBuffer;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Hashes a whole file from the bytes of its regions as they are sent, however often a region is sent.
+ *
+ * <p>Regions have to be given in order. Bytes before the end of the bytes hashed so far were hashed
+ * already and are skipped, so a region that is sent again is not hashed twice.</p>
+ */
+@NullMarked
+public final class FileHasher {
+  private final Hasher hasher;
+  private long position;
+
+  public FileHasher(final HashFunction function) {
+    this.hasher = function.newHasher();
+  }
+
+  /**
+   * Hashes bytes of the file.
+   *
+   * @param offset the offset of the bytes in the file
+   * @param bytes the bytes, which are not consumed
+   * @throws IllegalStateException if bytes before the offset were not hashed
+   */
+  public synchronized void put(final long offset, final ByteBuffer bytes) {
+    final long end = offset + bytes.remaining();
+    if (end <= this.position) {
+      return;
+    }
+    if (offset > this.position) {
+      throw new IllegalStateException("Bytes " + this.position + " to " + offset + " were not hashed");
+    }
+    final ByteBuffer remaining = bytes.duplicate();
+    remaining.position(remaining.position() + (int) (this.position - offset));
+    this.hasher.putBytes(remaining);
+    this.position = end;
+  }
+
+  /**
+   * Gets the number of bytes hashed.
+   *
+   * @return the number of bytes
+   */
+  public synchronized long size() {
+    return this.position;
+  }
+
+  public synchronized HashCode hash() {
+    return this.hasher.hash();
+  }
+}
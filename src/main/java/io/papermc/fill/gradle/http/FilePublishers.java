@@ -0,0 +1,188 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Body publishers reading from files on disk.
+ */
+@NullMarked
+public final class FilePublishers {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private FilePublishers() {
+  }
+
+  /**
+   * Creates a publisher streaming a region of a file.
+   *
+   * <p>Every subscription opens the file on its own, and closes it once the region was sent, the
+   * subscription failed, or it was cancelled.</p>
+   *
+   * @param path the file path
+   * @param offset the offset of the region
+   * @param length the length of the region
+   * @return the body publisher
+   */
+  public static HttpRequest.BodyPublisher ofRegion(final Path path, final long offset, final long length) {
+    return new RegionPublisher(path, offset, length);
+  }
+
+  @NullMarked
+  private record RegionPublisher(Path path, long offset, long length) implements HttpRequest.BodyPublisher {
+    @Override
+    public long contentLength() {
+      return this.length;
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+      final FileChannel channel;
+      try {
+        channel = FileChannel.open(this.path, StandardOpenOption.READ);
+      } catch (final IOException e) {
+        subscriber.onSubscribe(new Flow.Subscription() {
+          @Override
+          public void request(final long n) {
+          }
+
+          @Override
+          public void cancel() {
+          }
+        });
+        subscriber.onError(e);
+        return;
+      }
+      subscriber.onSubscribe(new RegionSubscription(subscriber, channel, this.offset, this.offset + this.length));
+    }
+  }
+
+  @NullMarked
+  private static final class RegionSubscription implements Flow.Subscription {
+    private final Flow.Subscriber<? super ByteBuffer> subscriber;
+    private final FileChannel channel;
+    private final long end;
+    // drains on one thread at a time, so a subscriber requesting more from onNext does not recurse
+    private final AtomicInteger draining = new AtomicInteger();
+    private long position;
+    private long demand;
+    private boolean done;
+
+    RegionSubscription(final Flow.Subscriber<? super ByteBuffer> subscriber, final FileChannel channel, final long offset, final long end) {
+      this.subscriber = subscriber;
+      this.channel = channel;
+      this.position = offset;
+      this.end = end;
+    }
+
+    @Override
+    public void request(final long n) {
+      if (n <= 0) {
+        this.fail(new IllegalArgumentException("Requested " + n + " items"));
+        return;
+      }
+      synchronized (this) {
+        this.demand = this.demand + n < 0 ? Long.MAX_VALUE : this.demand + n;
+      }
+      this.drain();
+    }
+
+    @Override
+    public void cancel() {
+      synchronized (this) {
+        if (this.done) return;
+        this.done = true;
+      }
+      this.close();
+    }
+
+    private void drain() {
+      if (this.draining.getAndIncrement() != 0) {
+        return;
+      }
+      do {
+        while (true) {
+          if (this.position == this.end) {
+            this.complete();
+            return;
+          }
+          synchronized (this) {
+            if (this.done || this.demand == 0) {
+              break;
+            }
+            this.demand--;
+          }
+          final ByteBuffer buffer;
+          try {
+            buffer = this.read();
+          } catch (final IOException e) {
+            this.fail(e);
+            return;
+          }
+          this.subscriber.onNext(buffer);
+        }
+      } while (this.draining.decrementAndGet() != 0);
+    }
+
+    private ByteBuffer read() throws IOException {
+      final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, this.end - this.position));
+      while (buffer.hasRemaining()) {
+        final int read = this.channel.read(buffer, this.position + buffer.position());
+        if (read < 0) {
+          throw new EOFException("The file ended before the region did");
+        }
+      }
+      this.position += buffer.flip().remaining();
+      return buffer;
+    }
+
+    private void complete() {
+      synchronized (this) {
+        if (this.done) return;
+        this.done = true;
+      }
+      this.close();
+      this.subscriber.onComplete();
+    }
+
+    private void fail(final Throwable failure) {
+      synchronized (this) {
+        if (this.done) return;
+        this.done = true;
+      }
+      this.close();
+      this.subscriber.onError(failure);
+    }
+
+    private void close() {
+      try {
+        this.channel.close();
+      } catch (final IOException ignored) {
+        // nothing was written
+      }
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.http;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A body publisher that hashes and counts the bytes of another publisher as they are sent,
+ * measuring the time spent hashing.
+ *
+ * <p>Every subscription starts a fresh hash, so a request that is sent more than once
+ * reports the result of the last body that was published in full. When the bytes are a region of a
+ * file, they can also be given to a {@link FileHasher} hashing the whole file.</p>
+ */
+@NullMarked
+public final class HashingBodyPublisher implements HttpRequest.BodyPublisher {
+  private final HttpRequest.BodyPublisher delegate;
+  private final HashFunction function;
+  private final @Nullable FileHasher file;
+  private final long offset;
+  private volatile @Nullable HashCode hash;
+  private volatile long size = -1;
+  private volatile long hashNanos;
+
+  public HashingBodyPublisher(final HttpRequest.BodyPublisher delegate, final HashFunction function) {
+    this(delegate, function, null, 0);
+  }
+
+  /**
+   * Creates a publisher hashing a region of a file.
+   *
+   * @param delegate the publisher of the region
+   * @param function the hash function of the region
+   * @param file the hasher of the whole file
+   * @param offset the offset of the region in the file
+   */
+  public HashingBodyPublisher(final HttpRequest.BodyPublisher delegate, final HashFunction function, final @Nullable FileHasher file, final long offset) {
+    this.delegate = delegate;
+    this.function = function;
+    this.file = file;
+    this.offset = offset;
+  }
+
+  @Override
+  public long contentLength() {
+    return this.delegate.contentLength();
+  }
+
+  @Override
+  public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+    this.delegate.subscribe(new HashingSubscriber(subscriber, this.function.newHasher()));
+  }
+
+  /**
+   * Gets the hash of the published bytes.
+   *
+   * @return the hash
+   * @throws IllegalStateException if the body has not been published in full
+   */
+  public HashCode hash() {
+    final HashCode hash = this.hash;
+    if (hash == null) throw new IllegalStateException("body has not been published");
+    return hash;
+  }
+
+  /**
+   * Gets the number of published bytes.
+   *
+   * @return the size
+   * @throws IllegalStateException if the body has not been published in full
+   */
+  public long size() {
+    final long size = this.size;
+    if (size < 0) throw new IllegalStateException("body has not been published");
+    return size;
+  }
+
+  /**
+   * Gets the time spent hashing the published bytes, in nanoseconds.
+   *
+   * @return the hashing time
+   * @throws IllegalStateException if the body has not been published in full
+   */
+  public long hashNanos() {
+    if (this.size < 0) throw new IllegalStateException("body has not been published");
+    return this.hashNanos;
+  }
+
+  @NullMarked
+  private final class HashingSubscriber implements Flow.Subscriber<ByteBuffer> {
+    private final Flow.Subscriber<? super ByteBuffer> downstream;
+    private final Hasher hasher;
+    private long count;
+    private long nanos;
+
+    HashingSubscriber(final Flow.Subscriber<? super ByteBuffer> downstream, final Hasher hasher) {
+      this.downstream = downstream;
+      this.hasher = hasher;
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+      this.downstream.onSubscribe(subscription);
+    }
+
+    @Override
+    public void onNext(final ByteBuffer item) {
+      final long start = System.nanoTime();
+      final FileHasher file = HashingBodyPublisher.this.file;
+      if (file != null) {
+        file.put(HashingBodyPublisher.this.offset + this.count, item);
+      }
+      this.count += item.remaining();
+      this.hasher.putBytes(item.duplicate());
+      this.nanos += System.nanoTime() - start;
+      this.downstream.onNext(item);
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+      this.downstream.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      HashingBodyPublisher.this.hash = this.hasher.hash();
+      HashingBodyPublisher.this.hashNanos = this.nanos;
+      HashingBodyPublisher.this.size = this.count;
+      this.downstream.onComplete();
+    }
+  }
+}
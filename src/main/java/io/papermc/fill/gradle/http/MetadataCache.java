@@ -0,0 +1,250 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.http;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A cache of api metadata, revalidated with conditional requests.
+ *
+ * <p>Responses carrying an {@code ETag} or {@code Last-Modified} header are kept in memory for the
+ * rest of the build and on disk for later builds. When the server answers a conditional request with
+ * {@code 304 Not Modified}, the cached value is used instead of downloading it again.</p>
+ *
+ * <p>The disk cache is bounded to {@code maxBytes}, evicting the least recently used entries first.</p>
+ */
+@NullMarked
+public final class MetadataCache {
+  private static final int VERSION = 1;
+  private final ObjectMapper mapper;
+  private final Path directory;
+  private final long maxBytes;
+  private final Map<String, Cached> memory = new ConcurrentHashMap<>();
+
+  public MetadataCache(final ObjectMapper mapper, final Path directory, final long maxBytes) {
+    this.mapper = mapper;
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Fetches a json value, revalidating any cached copy.
+   *
+   * @param client the client
+   * @param endpoint the endpoint name
+   * @param request the request
+   * @param type the value type
+   * @param <T> the value type
+   * @return the value
+   * @throws IOException if the request failed or the server answered with an unexpected status
+   * @throws InterruptedException if interrupted while sending the request
+   */
+  public <T> T fetch(
+    final RetryingHttpClient client,
+    final String endpoint,
+    final HttpRequest request,
+    final TypeReference<T> type
+  ) throws IOException, InterruptedException {
+    final JavaType javaType = this.mapper.getTypeFactory().constructType(type);
+    return this.fetch(client, endpoint, endpoint, request, javaType, body -> this.mapper.readValue(body, javaType));
+  }
+
+  /**
+   * Fetches a value read from a json response, revalidating any cached copy.
+   *
+   * <p>The value returned by the reader is what gets cached, so it does not have to be the whole response.
+   * The {@code view} distinguishes values read differently from the same url.</p>
+   *
+   * @param client the client
+   * @param endpoint the endpoint name
+   * @param view the name of the value read from the response
+   * @param request the request
+   * @param type the value type
+   * @param reader reads the value from the response body
+   * @param <T> the value type
+   * @return the value
+   * @throws IOException if the request failed or the server answered with an unexpected status
+   * @throws InterruptedException if interrupted while sending the request
+   */
+  public <T> T fetch(
+    final RetryingHttpClient client,
+    final String endpoint,
+    final String view,
+    final HttpRequest request,
+    final JavaType type,
+    final Reader<T> reader
+  ) throws IOException, InterruptedException {
+    final String key = view + ' ' + request.uri();
+    final Cached cached = this.lookup(key);
+
+    final HttpRequest.Builder conditional = HttpRequest.newBuilder(request, (name, value) -> true);
+    if (cached != null) {
+      if (cached.entry().etag() != null) {
+        conditional.header("If-None-Match", cached.entry().etag());
+      }
+      if (cached.entry().lastModified() != null) {
+        conditional.header("If-Modified-Since", cached.entry().lastModified());
+      }
+    }
+
+    final HttpResponse<InputStream> response = client.send(endpoint, RetryingHttpClient.Idempotency.IDEMPOTENT, conditional.build(), HttpResponse.BodyHandlers.ofInputStream());
+    try (final InputStream body = response.body()) {
+      final int statusCode = response.statusCode();
+      if (statusCode == 304 && cached != null) {
+        this.touch(key);
+        final T value = cached.value(this.mapper, type);
+        this.memory.put(key, new Cached(cached.entry(), value));
+        return value;
+      } else if (statusCode != 200) {
+        throw new IOException("Unexpected response status: " + statusCode);
+      }
+
+      final T value = reader.read(body);
+      final @Nullable String etag = response.headers().firstValue("ETag").orElse(null);
+      final @Nullable String lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+      if (etag != null || lastModified != null) {
+        final Entry entry = new Entry(VERSION, etag, lastModified, this.mapper.valueToTree(value));
+        this.memory.put(key, new Cached(entry, value));
+        this.store(key, entry);
+      }
+      return value;
+    }
+  }
+
+  private @Nullable Cached lookup(final String key) {
+    final Cached cached = this.memory.get(key);
+    if (cached != null) {
+      return cached;
+    }
+    final Path file = this.file(key);
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try {
+      final Entry entry = this.mapper.readValue(file.toFile(), Entry.class);
+      if (entry.version() == VERSION) {
+        final Cached loaded = new Cached(entry, null);
+        this.memory.put(key, loaded);
+        return loaded;
+      }
+    } catch (final IOException ignored) {
+      // corrupt or unreadable, fetch it again
+    }
+    return null;
+  }
+
+  private void store(final String key, final Entry entry) {
+    try {
+      Files.createDirectories(this.directory);
+      final Path file = this.file(key);
+      final Path temp = Files.createTempFile(this.directory, file.getFileName().toString(), ".tmp");
+      try {
+        this.mapper.writeValue(temp.toFile(), entry);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+      this.evict();
+    } catch (final IOException ignored) {
+      // the cache is best effort, the value was still fetched
+    }
+  }
+
+  private void touch(final String key) {
+    try {
+      Files.setLastModifiedTime(this.file(key), FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (final IOException ignored) {
+      // only affects eviction order
+    }
+  }
+
+  private void evict() throws IOException {
+    final List<Path> files;
+    try (final Stream<Path> stream = Files.list(this.directory)) {
+      files = stream.filter(path -> path.getFileName().toString().endsWith(".json"))
+        .sorted(Comparator.comparing(MetadataCache::lastModified).reversed())
+        .toList();
+    }
+    long total = 0;
+    for (final Path file : files) {
+      total += Files.size(file);
+      if (total > this.maxBytes) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  private Path file(final String key) {
+    return this.directory.resolve(Hashing.sha256().hashString(key, StandardCharsets.UTF_8) + ".json");
+  }
+
+  private static FileTime lastModified(final Path path) {
+    try {
+      return Files.getLastModifiedTime(path);
+    } catch (final IOException e) {
+      return FileTime.fromMillis(0);
+    }
+  }
+
+  @FunctionalInterface
+  @NullMarked
+  public interface Reader<T> {
+    T read(final InputStream body) throws IOException;
+  }
+
+  @NullMarked
+  record Entry(
+    int version,
+    @Nullable String etag,
+    @Nullable String lastModified,
+    JsonNode value
+  ) {
+  }
+
+  @NullMarked
+  record Cached(
+    Entry entry,
+    @Nullable Object parsed
+  ) {
+    @SuppressWarnings("unchecked")
+    <T> T value(final ObjectMapper mapper, final JavaType type) throws IOException {
+      if (this.parsed != null) {
+        return (T) this.parsed;
+      }
+      return mapper.treeToValue(this.entry.value(), type);
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.http;
+
+import java.io.FileNotFoundException;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.function.Supplier;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * A {@code multipart/form-data} request body whose file parts are streamed from disk.
+ */
+@NullMarked
+public final class MultipartBody {
+  private static final SecureRandom RANDOM = new SecureRandom();
+  private final String boundary;
+  private final List<HttpRequest.BodyPublisher> parts = new ArrayList<>();
+
+  private MultipartBody(final String boundary) {
+    this.boundary = boundary;
+  }
+
+  /**
+   * Creates a new multipart body with a random boundary.
+   *
+   * @return the multipart body
+   */
+  public static MultipartBody create() {
+    final byte[] bytes = new byte[16];
+    RANDOM.nextBytes(bytes);
+    return new MultipartBody("fill-" + HexFormat.of().formatHex(bytes));
+  }
+
+  /**
+   * Adds a json part.
+   *
+   * @param name the part name
+   * @param json the json content
+   * @return this body
+   */
+  public MultipartBody json(final String name, final String json) {
+    this.parts.add(HttpRequest.BodyPublishers.ofString(this.jsonHeader(name) + json + "\r\n"));
+    return this;
+  }
+
+  /**
+   * Adds a json part that is only created when it is sent, after the parts added before it.
+   *
+   * @param name the part name
+   * @param length the length of the json content in bytes, which every created content must have
+   * @param json creates the json content
+   * @return this body
+   */
+  public MultipartBody json(final String name, final int length, final Supplier<String> json) {
+    final String header = this.jsonHeader(name);
+    this.parts.add(new DeferredPublisher(header.getBytes(StandardCharsets.UTF_8).length + length + 2, () -> {
+      final String content = json.get();
+      if (content.getBytes(StandardCharsets.UTF_8).length != length) {
+        throw new IllegalStateException("Json part " + name + " is not " + length + " bytes long: " + content);
+      }
+      return HttpRequest.BodyPublishers.ofString(header + content + "\r\n");
+    }));
+    return this;
+  }
+
+  private String jsonHeader(final String name) {
+    return "--" + this.boundary + "\r\n"
+      + "Content-Disposition: form-data; name=\"" + name + "\"\r\n"
+      + "Content-Type: application/json\r\n"
+      + "\r\n";
+  }
+
+  /**
+   * Adds a file part, read from disk when the request is sent.
+   *
+   * @param name the part name
+   * @param filename the file name
+   * @param path the file path
+   * @return this body
+   * @throws FileNotFoundException if the file does not exist
+   */
+  public MultipartBody file(final String name, final String filename, final Path path) throws FileNotFoundException {
+    return this.file(name, filename, HttpRequest.BodyPublishers.ofFile(path));
+  }
+
+  /**
+   * Adds a file part with the given content.
+   *
+   * @param name the part name
+   * @param filename the file name
+   * @param content the file content
+   * @return this body
+   */
+  public MultipartBody file(final String name, final String filename, final HttpRequest.BodyPublisher content) {
+    this.parts.add(HttpRequest.BodyPublishers.ofString(
+      "--" + this.boundary + "\r\n"
+        + "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + filename + "\"\r\n"
+        + "Content-Type: application/octet-stream\r\n"
+        + "\r\n"
+    ));
+    this.parts.add(content);
+    this.parts.add(HttpRequest.BodyPublishers.ofString("\r\n"));
+    return this;
+  }
+
+  /**
+   * Gets the value for the {@code Content-Type} header.
+   *
+   * @return the content type
+   */
+  public String contentType() {
+    return "multipart/form-data; boundary=" + this.boundary;
+  }
+
+  /**
+   * Creates a publisher for this body.
+   *
+   * @return the body publisher
+   */
+  public HttpRequest.BodyPublisher publisher() {
+    final List<HttpRequest.BodyPublisher> publishers = new ArrayList<>(this.parts);
+    publishers.add(HttpRequest.BodyPublishers.ofString("--" + this.boundary + "--\r\n"));
+    return HttpRequest.BodyPublishers.concat(publishers.toArray(HttpRequest.BodyPublisher[]::new));
+  }
+
+  @NullMarked
+  private record DeferredPublisher(long contentLength, Supplier<HttpRequest.BodyPublisher> publisher) implements HttpRequest.BodyPublisher {
+    @Override
+    public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+      final HttpRequest.BodyPublisher publisher;
+      try {
+        publisher = this.publisher.get();
+      } catch (final RuntimeException e) {
+        subscriber.onSubscribe(new Flow.Subscription() {
+          @Override
+          public void request(final long n) {
+          }
+
+          @Override
+          public void cancel() {
+          }
+        });
+        subscriber.onError(e);
+        return;
+      }
+      publisher.subscribe(subscriber);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.http;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.util.OptionalLong;
+import java.util.concurrent.Flow;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A body publisher that counts the bytes of another publisher as they are sent, and can fail
+ * the request sending it, such as when it stopped making progress.
+ *
+ * <p>Every subscription starts counting from zero, so a request that is sent again reports
+ * the bytes of its current attempt.</p>
+ */
+@NullMarked
+public final class ProgressBodyPublisher implements HttpRequest.BodyPublisher {
+  private final HttpRequest.BodyPublisher delegate;
+  private volatile @Nullable ProgressSubscriber current;
+
+  public ProgressBodyPublisher(final HttpRequest.BodyPublisher delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public long contentLength() {
+    return this.delegate.contentLength();
+  }
+
+  @Override
+  public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+    final ProgressSubscriber progress = new ProgressSubscriber(subscriber);
+    this.current = progress;
+    this.delegate.subscribe(progress);
+  }
+
+  /**
+   * Gets the number of bytes sent by the current attempt.
+   *
+   * @return the number of sent bytes
+   */
+  public long sent() {
+    final ProgressSubscriber current = this.current;
+    return current != null ? current.count : 0;
+  }
+
+  /**
+   * Gets when the current attempt finished sending the body.
+   *
+   * @return the time from {@link System#nanoTime()}, or empty if the body was not sent in full
+   */
+  public OptionalLong sentAt() {
+    final ProgressSubscriber current = this.current;
+    return current != null && current.completed ? OptionalLong.of(current.completedAt) : OptionalLong.empty();
+  }
+
+  /**
+   * Checks whether the body is being sent, that is it was subscribed to and did not complete or fail yet.
+   *
+   * @return whether the body is being sent
+   */
+  public boolean sending() {
+    final ProgressSubscriber current = this.current;
+    return current != null && !current.done;
+  }
+
+  /**
+   * Fails the current attempt, the request sending the body fails with the exception.
+   *
+   * @param exception the exception
+   */
+  public void fail(final IOException exception) {
+    final ProgressSubscriber current = this.current;
+    if (current != null) {
+      current.fail(exception);
+    }
+  }
+
+  @NullMarked
+  private static final class ProgressSubscriber implements Flow.Subscriber<ByteBuffer> {
+    private final Flow.Subscriber<? super ByteBuffer> downstream;
+    private volatile Flow.@Nullable Subscription subscription;
+    private volatile long count;
+    private volatile boolean done;
+    private volatile long completedAt;
+    private volatile boolean completed;
+
+    ProgressSubscriber(final Flow.Subscriber<? super ByteBuffer> downstream) {
+      this.downstream = downstream;
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+      this.subscription = subscription;
+      this.downstream.onSubscribe(subscription);
+    }
+
+    // signals are serialized, failing the attempt can happen on any thread
+    @Override
+    public synchronized void onNext(final ByteBuffer item) {
+      if (this.done) return;
+      this.count += item.remaining();
+      this.downstream.onNext(item);
+    }
+
+    @Override
+    public synchronized void onError(final Throwable throwable) {
+      if (this.done) return;
+      this.done = true;
+      this.downstream.onError(throwable);
+    }
+
+    @Override
+    public synchronized void onComplete() {
+      if (this.done) return;
+      this.done = true;
+      this.completedAt = System.nanoTime();
+      this.completed = true;
+      this.downstream.onComplete();
+    }
+
+    synchronized void fail(final IOException exception) {
+      if (this.done) return;
+      this.done = true;
+      final Flow.Subscription subscription = this.subscription;
+      if (subscription != null) {
+        subscription.cancel();
+      }
+      this.downstream.onError(exception);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.http;
+
+import java.io.Serializable;
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Exponential backoff with jitter.
+ *
+ * @param maxAttempts the maximum number of attempts, including the first one
+ * @param baseDelay the delay before the first retry
+ * @param maxDelay the upper bound of the computed delay
+ * @param jitter the fraction of the delay that is randomized, between {@code 0} and {@code 1}
+ */
+@NullMarked
+public record RetryPolicy(
+  int maxAttempts,
+  Duration baseDelay,
+  Duration maxDelay,
+  double jitter
+) implements Serializable {
+  public static final RetryPolicy NONE = new RetryPolicy(1, Duration.ZERO, Duration.ZERO, 0);
+
+  public RetryPolicy {
+    if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts must be at least 1");
+    if (jitter < 0 || jitter > 1) throw new IllegalArgumentException("jitter must be between 0 and 1");
+  }
+
+  /**
+   * Computes the delay before the given retry.
+   *
+   * @param retry the retry, starting at {@code 1}
+   * @param retryAfter the delay requested by the server, if any
+   * @return the delay
+   */
+  public Duration delay(final int retry, final @Nullable Duration retryAfter) {
+    final double exponential = Math.min(this.baseDelay.toMillis() * Math.pow(2, retry - 1), this.maxDelay.toMillis());
+    final double factor = 1 - this.jitter + ThreadLocalRandom.current().nextDouble() * this.jitter * 2;
+    // clamped after the jitter, so the delay never passes maxDelay
+    final Duration delay = Duration.ofMillis((long) Math.min(exponential * factor, this.maxDelay.toMillis()));
+    if (retryAfter != null && retryAfter.compareTo(delay) > 0) {
+      return retryAfter;
+    }
+    return delay;
+  }
+
+  /**
+   * Parses the {@code Retry-After} header, in either of its delay-seconds or HTTP-date forms.
+   *
+   * @param headers the response headers
+   * @param now the current time
+   * @return the requested delay, or {@code null} if not present or invalid
+   */
+  public static @Nullable Duration retryAfter(final HttpHeaders headers, final Instant now) {
+    final Optional<String> header = headers.firstValue("Retry-After");
+    if (header.isEmpty()) {
+      return null;
+    }
+    final String value = header.get().trim();
+    try {
+      return Duration.ofSeconds(Math.max(0, Long.parseLong(value)));
+    } catch (final NumberFormatException ignored) {
+      // not delay-seconds, try HTTP-date
+    }
+    try {
+      final Instant at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+      return at.isAfter(now) ? Duration.between(now, at) : Duration.ZERO;
+    } catch (final DateTimeParseException ignored) {
+      return null;
+    }
+  }
+}
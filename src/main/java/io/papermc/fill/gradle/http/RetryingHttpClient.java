@@ -0,0 +1,225 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.http;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.gradle.api.logging.Logger;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Sends requests through an {@link HttpClient}, retrying transient failures according to a {@link RetryPolicy},
+ * within a {@link Deadline}.
+ */
+@NullMarked
+public final class RetryingHttpClient {
+  private static final Set<Integer> RETRYABLE_STATUSES = Set.of(408, 429, 500, 502, 503, 504);
+  // statuses telling us the server did not act on the request
+  private static final Set<Integer> UNPROCESSED_STATUSES = Set.of(429, 503);
+  private final HttpClient client;
+  private final RetryPolicy policy;
+  private final Logger logger;
+  private final Deadline deadline;
+  private final Listener listener;
+  private final Map<String, AtomicInteger> retries = new ConcurrentHashMap<>();
+
+  public RetryingHttpClient(final HttpClient client, final RetryPolicy policy, final Logger logger) {
+    this(client, policy, logger, Deadline.NONE);
+  }
+
+  public RetryingHttpClient(final HttpClient client, final RetryPolicy policy, final Logger logger, final Deadline deadline) {
+    this(client, policy, logger, deadline, Listener.NONE);
+  }
+
+  public RetryingHttpClient(final HttpClient client, final RetryPolicy policy, final Logger logger, final Deadline deadline, final Listener listener) {
+    this.client = client;
+    this.policy = policy;
+    this.logger = logger;
+    this.deadline = deadline;
+    this.listener = listener;
+  }
+
+  /**
+   * Gets the deadline requests are sent within.
+   *
+   * @return the deadline
+   */
+  public Deadline deadline() {
+    return this.deadline;
+  }
+
+  /**
+   * Sends a request, retrying it while it fails with a transient error.
+   *
+   * <p>The response of the last attempt is returned, even if its status is retryable. Every attempt
+   * times out at the deadline at the latest, and no attempt is made after it.</p>
+   *
+   * @param endpoint the endpoint name, used for logging and retry counts
+   * @param idempotency whether the request can safely be sent more than once
+   * @param request the request
+   * @param handler the response body handler
+   * @param <T> the response body type
+   * @return the response
+   * @throws IOException if the last attempt failed, or an {@link HttpTimeoutException} once the deadline passed
+   * @throws InterruptedException if interrupted while sending or waiting to retry
+   */
+  public <T> HttpResponse<T> send(
+    final String endpoint,
+    final Idempotency idempotency,
+    final HttpRequest request,
+    final HttpResponse.BodyHandler<T> handler
+  ) throws IOException, InterruptedException {
+    for (int attempt = 1; ; attempt++) {
+      final boolean last = attempt >= this.policy.maxAttempts();
+      final HttpRequest bounded = this.deadline.bound(request);
+      final HttpResponse<T> response;
+      final long start = System.nanoTime();
+      try {
+        response = this.client.send(bounded, handler);
+      } catch (final IOException e) {
+        this.listener.attempt(endpoint, start, null, e);
+        if (e instanceof HttpTimeoutException && this.deadline.expired()) {
+          throw deadlinePassed("while sending the request to " + endpoint, e);
+        }
+        final Duration delay = this.policy.delay(attempt, null);
+        if (last || !idempotency.retryable(e)) {
+          throw e;
+        }
+        if (!this.allowsRetry(endpoint, delay)) {
+          throw deadlinePassed("before retrying the request to " + endpoint, e);
+        }
+        this.retry(endpoint, attempt, delay, e.toString());
+        continue;
+      }
+      this.listener.attempt(endpoint, start, response, null);
+      if (last || !idempotency.retryable(response.statusCode())) {
+        return response;
+      }
+      final Duration delay = this.policy.delay(attempt, RetryPolicy.retryAfter(response.headers(), Instant.now()));
+      if (!this.allowsRetry(endpoint, delay)) {
+        return response;
+      }
+      if (response.body() instanceof final AutoCloseable body) {
+        // release the connection of a streamed body we are not going to read
+        try {
+          body.close();
+        } catch (final Exception ignored) {
+        }
+      }
+      this.retry(endpoint, attempt, delay, "status " + response.statusCode());
+    }
+  }
+
+  private boolean allowsRetry(final String endpoint, final Duration delay) {
+    if (this.deadline.allows(delay)) {
+      return true;
+    }
+    this.logger.warn("Not retrying request to {}, waiting {} ms would pass the deadline", endpoint, delay.toMillis());
+    return false;
+  }
+
+  private static HttpTimeoutException deadlinePassed(final String when, final IOException cause) {
+    final HttpTimeoutException exception = new HttpTimeoutException("The publish timeout passed " + when);
+    exception.initCause(cause);
+    return exception;
+  }
+
+  private void retry(final String endpoint, final int attempt, final Duration delay, final String reason) throws InterruptedException {
+    this.retries.computeIfAbsent(endpoint, key -> new AtomicInteger()).incrementAndGet();
+    this.logger.warn("Request to {} failed ({}), retrying in {} ms (attempt {}/{})", endpoint, reason, delay.toMillis(), attempt + 1, this.policy.maxAttempts());
+    Thread.sleep(delay);
+  }
+
+  /**
+   * Gets the number of retries made so far, by endpoint.
+   *
+   * @return the retry counts
+   */
+  public Map<String, Integer> retries() {
+    final Map<String, Integer> retries = new TreeMap<>();
+    this.retries.forEach((endpoint, count) -> retries.put(endpoint, count.get()));
+    return retries;
+  }
+
+  /**
+   * Receives the outcome of every attempt of a request, on the thread sending it.
+   */
+  @FunctionalInterface
+  @NullMarked
+  public interface Listener {
+    Listener NONE = (endpoint, startNanos, response, failure) -> {
+    };
+
+    /**
+     * Called once an attempt received a response or failed.
+     *
+     * @param endpoint the endpoint name
+     * @param startNanos when the attempt was sent, from {@link System#nanoTime()}
+     * @param response the response, or {@code null} if the attempt failed
+     * @param failure why the attempt failed, or {@code null} if it received a response
+     */
+    void attempt(String endpoint, long startNanos, @Nullable HttpResponse<?> response, @Nullable IOException failure);
+  }
+
+  @NullMarked
+  public enum Idempotency {
+    /**
+     * The request can be sent again after any transient failure.
+     */
+    IDEMPOTENT {
+      @Override
+      boolean retryable(final int status) {
+        return RETRYABLE_STATUSES.contains(status);
+      }
+
+      @Override
+      boolean retryable(final IOException exception) {
+        return true;
+      }
+    },
+    /**
+     * The request is only sent again when the server could not have acted on it.
+     */
+    NON_IDEMPOTENT {
+      @Override
+      boolean retryable(final int status) {
+        return UNPROCESSED_STATUSES.contains(status);
+      }
+
+      @Override
+      boolean retryable(final IOException exception) {
+        return exception instanceof ConnectException || exception instanceof HttpConnectTimeoutException;
+      }
+    };
+
+    abstract boolean retryable(final int status);
+
+    abstract boolean retryable(final IOException exception);
+  }
+}
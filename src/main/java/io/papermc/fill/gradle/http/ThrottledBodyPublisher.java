@@ -0,0 +1,162 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.http;
+
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A body publisher that sends the bytes of another publisher no faster than a {@link TokenBucket} allows.
+ *
+ * <p>Buffers are requested from the other publisher one at a time. Once a buffer is passed on, the next one is
+ * only requested when the bucket allows it, so the request is slowed down without buffering more of the body
+ * or blocking the thread publishing it.</p>
+ */
+@NullMarked
+public final class ThrottledBodyPublisher implements HttpRequest.BodyPublisher {
+  private final HttpRequest.BodyPublisher delegate;
+  private final TokenBucket bucket;
+
+  public ThrottledBodyPublisher(final HttpRequest.BodyPublisher delegate, final TokenBucket bucket) {
+    this.delegate = delegate;
+    this.bucket = bucket;
+  }
+
+  @Override
+  public long contentLength() {
+    return this.delegate.contentLength();
+  }
+
+  @Override
+  public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+    this.delegate.subscribe(new ThrottledSubscriber(subscriber, this.bucket));
+  }
+
+  @NullMarked
+  private static final class ThrottledSubscriber implements Flow.Subscriber<ByteBuffer>, Flow.Subscription {
+    private final Flow.Subscriber<? super ByteBuffer> downstream;
+    private final TokenBucket bucket;
+    // drains on one thread at a time, so a publisher answering a request at once does not recurse
+    private final AtomicInteger draining = new AtomicInteger();
+    private Flow.@Nullable Subscription upstream;
+    private long demand;
+    private boolean waiting;
+    private boolean done;
+
+    ThrottledSubscriber(final Flow.Subscriber<? super ByteBuffer> downstream, final TokenBucket bucket) {
+      this.downstream = downstream;
+      this.bucket = bucket;
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+      synchronized (this) {
+        this.upstream = subscription;
+      }
+      this.downstream.onSubscribe(this);
+    }
+
+    @Override
+    public void request(final long n) {
+      if (n <= 0) {
+        this.cancel();
+        this.downstream.onError(new IllegalArgumentException("Requested " + n + " items"));
+        return;
+      }
+      synchronized (this) {
+        this.demand = this.demand + n < 0 ? Long.MAX_VALUE : this.demand + n;
+      }
+      this.drain();
+    }
+
+    @Override
+    public void cancel() {
+      final Flow.Subscription upstream;
+      synchronized (this) {
+        this.done = true;
+        upstream = this.upstream;
+      }
+      if (upstream != null) {
+        upstream.cancel();
+      }
+    }
+
+    @Override
+    public void onNext(final ByteBuffer item) {
+      synchronized (this) {
+        if (this.done) return;
+      }
+      final long wait = this.bucket.take(item.remaining(), System.nanoTime());
+      this.downstream.onNext(item);
+      if (wait > 0) {
+        // the next buffer is requested once the bytes of this one are paid for
+        CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS).execute(this::ready);
+      } else {
+        this.ready();
+      }
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+      synchronized (this) {
+        if (this.done) return;
+        this.done = true;
+      }
+      this.downstream.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      synchronized (this) {
+        if (this.done) return;
+        this.done = true;
+      }
+      this.downstream.onComplete();
+    }
+
+    private void ready() {
+      synchronized (this) {
+        this.waiting = false;
+      }
+      this.drain();
+    }
+
+    private void drain() {
+      if (this.draining.getAndIncrement() != 0) {
+        return;
+      }
+      do {
+        final Flow.Subscription upstream;
+        synchronized (this) {
+          upstream = !this.waiting && this.demand > 0 && !this.done ? this.upstream : null;
+          if (upstream != null) {
+            this.waiting = true;
+            this.demand--;
+          }
+        }
+        if (upstream != null) {
+          upstream.request(1);
+        }
+      } while (this.draining.decrementAndGet() != 0);
+    }
+  }
+}
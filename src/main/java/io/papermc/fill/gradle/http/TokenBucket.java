@@ -0,0 +1,63 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.http;
+
+import java.util.concurrent.TimeUnit;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * A token bucket limiting the rate bytes are sent at, shared by every request it is given to.
+ *
+ * <p>The bucket fills at the configured rate up to its burst size. Taking more bytes than the bucket
+ * holds borrows from the future, so the caller and everyone after it has to wait until the debt is paid
+ * back before sending more.</p>
+ */
+@NullMarked
+public final class TokenBucket {
+  private final double bytesPerNano;
+  private final long burst;
+  private double tokens;
+  private long refilled;
+
+  /**
+   * Creates a full bucket.
+   *
+   * @param bytesPerSecond the rate the bucket fills at
+   * @param burst the number of bytes the bucket holds
+   */
+  public TokenBucket(final long bytesPerSecond, final long burst) {
+    if (bytesPerSecond <= 0) throw new IllegalArgumentException("bytesPerSecond must be positive, was " + bytesPerSecond);
+    if (burst <= 0) throw new IllegalArgumentException("burst must be positive, was " + burst);
+    this.bytesPerNano = bytesPerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+    this.burst = burst;
+    this.tokens = burst;
+    this.refilled = System.nanoTime();
+  }
+
+  /**
+   * Takes bytes from the bucket.
+   *
+   * @param bytes the number of bytes
+   * @param now the current time, from {@link System#nanoTime()}
+   * @return how long to wait before sending more, in nanoseconds
+   */
+  synchronized long take(final long bytes, final long now) {
+    this.tokens = Math.min(this.burst, this.tokens + (now - this.refilled) * this.bytesPerNano);
+    this.refilled = now;
+    this.tokens -= bytes;
+    return this.tokens >= 0 ? 0 : (long) Math.ceil(-this.tokens / this.bytesPerNano);
+  }
+}
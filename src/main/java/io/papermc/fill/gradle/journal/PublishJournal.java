@@ -0,0 +1,188 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.journal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.papermc.fill.gradle.task.PublishToFillTask;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Records the progress of a publish, so a publish that failed can be resumed by running it again.
+ *
+ * <p>The journal holds the upload session of the build being published, and a result for every
+ * upload the api acknowledged. Running the publish of the same build again resumes its session, and
+ * only sends the uploads that were not acknowledged. The journal is deleted once the build is published.</p>
+ *
+ * <p>The journal also records a publish request that was sent without the api answering it, so a conflict
+ * on the next attempt can be told apart from a build published by someone else.</p>
+ */
+@NullMarked
+public final class PublishJournal {
+  private static final ObjectMapper MAPPER = PublishToFillTask.MapperHolder.MAPPER;
+  private static final String SESSION = "session.json";
+  private static final String UPLOADED = "uploaded";
+  private static final String PUBLISHING = "publishing";
+  private static final int VERSION = 2;
+  private final Path directory;
+
+  public PublishJournal(final Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Opens the session of a build, resuming the session of an earlier publish of the same build to the same api
+   * if there is one.
+   *
+   * <p>The journal of a different build or api is discarded.</p>
+   *
+   * @param apiUrl the url of the api
+   * @param project the project
+   * @param version the version
+   * @param build the build
+   * @return the session
+   * @throws IOException if the journal could not be read or written
+   */
+  public synchronized Session open(final String apiUrl, final String project, final String version, final int build) throws IOException {
+    final Contents existing = this.read();
+    if (existing != null && existing.apiUrl().equals(apiUrl) && existing.project().equals(project) && existing.projectVersion().equals(version) && existing.build() == build) {
+      Files.createDirectories(this.directory.resolve(UPLOADED));
+      return new Session(existing.session(), true);
+    }
+    delete(this.directory);
+    Files.createDirectories(this.directory.resolve(UPLOADED));
+    final Contents contents = new Contents(VERSION, UUID.randomUUID(), apiUrl, project, version, build);
+    final Path temp = Files.createTempFile(this.directory, SESSION, ".tmp");
+    try {
+      MAPPER.writeValue(temp.toFile(), contents);
+      Files.move(temp, this.directory.resolve(SESSION), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    return new Session(contents.session(), false);
+  }
+
+  /**
+   * Gets the file the result of uploading a download is written to. An existing result means the
+   * api acknowledged the upload.
+   *
+   * @param key the download key
+   * @return the result file
+   */
+  public Path uploadResult(final String key) {
+    // keys can contain characters file names can not
+    return this.directory.resolve(UPLOADED).resolve(URLEncoder.encode(key, StandardCharsets.UTF_8) + ".json");
+  }
+
+  /**
+   * Checks whether the publish request of the session was sent before without the api answering it,
+   * so it may have published the build.
+   *
+   * @return whether the outcome of an earlier request is unknown
+   */
+  public boolean publishing() {
+    return Files.exists(this.directory.resolve(PUBLISHING));
+  }
+
+  /**
+   * Records that the publish request of the session is about to be sent.
+   *
+   * @throws IOException if the marker could not be written
+   */
+  public void markPublishing() throws IOException {
+    Files.write(this.directory.resolve(PUBLISHING), new byte[0]);
+  }
+
+  /**
+   * Clears the marker of {@link #markPublishing()}, once the api answered that the build was not published.
+   *
+   * @throws IOException if the marker could not be deleted
+   */
+  public void clearPublishing() throws IOException {
+    Files.deleteIfExists(this.directory.resolve(PUBLISHING));
+  }
+
+  /**
+   * Deletes the journal, once the build has been published.
+   *
+   * @throws IOException if the journal could not be deleted
+   */
+  public synchronized void delete() throws IOException {
+    delete(this.directory);
+  }
+
+  private static void delete(final Path path) throws IOException {
+    if (!Files.exists(path)) {
+      return;
+    }
+    final List<Path> paths = new ArrayList<>();
+    try (final Stream<Path> walk = Files.walk(path)) {
+      walk.forEach(paths::add);
+    }
+    for (final Path child : paths.reversed()) {
+      Files.deleteIfExists(child);
+    }
+  }
+
+  private @Nullable Contents read() throws IOException {
+    final Path file = this.directory.resolve(SESSION);
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    final Contents contents;
+    try {
+      contents = MAPPER.readValue(file.toFile(), Contents.class);
+    } catch (final IOException e) {
+      // unreadable, start a new session
+      return null;
+    }
+    return contents.version() == VERSION ? contents : null;
+  }
+
+  /**
+   * The upload session of a build.
+   *
+   * @param id the session id
+   * @param resumed whether the session was started by an earlier publish
+   */
+  @NullMarked
+  public record Session(
+    UUID id,
+    boolean resumed
+  ) {
+  }
+
+  @NullMarked
+  record Contents(
+    int version,
+    UUID session,
+    String apiUrl,
+    String project,
+    String projectVersion,
+    int build
+  ) {
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.report;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.papermc.fill.gradle.service.ConcurrencyLimit;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Collects the timings of the phases of a publish, and of every artifact it uploads.
+ *
+ * <p>Phases that run more than once, or concurrently, add up their time.</p>
+ */
+@NullMarked
+public final class PublishReport {
+  public static final String GIT_OPEN = "git.open";
+  public static final String GIT_WALK = "git.walk";
+  public static final String METADATA_VERSIONS = "metadata.versions";
+  public static final String METADATA_BUILDS = "metadata.builds";
+  public static final String HASH = "hash";
+  public static final String UPLOAD_EXISTS = "upload.exists";
+  public static final String UPLOADS = "uploads";
+  public static final String PUBLISH = "publish";
+  private static final int VERSION = 2;
+  private final Instant started = Instant.now();
+  private final long start = System.nanoTime();
+  private final Map<String, Long> phases = new LinkedHashMap<>();
+  private final Map<String, Artifact> artifacts = new LinkedHashMap<>();
+  private List<ConcurrencyLimit.Decision> concurrency = List.of();
+
+  /**
+   * Starts timing a phase, until the returned timer is closed.
+   *
+   * @param phase the phase
+   * @return the timer
+   */
+  public Timer time(final String phase) {
+    final long start = System.nanoTime();
+    return () -> this.phase(phase, System.nanoTime() - start);
+  }
+
+  /**
+   * Adds time to a phase.
+   *
+   * @param phase the phase
+   * @param nanos the time in nanoseconds
+   */
+  public synchronized void phase(final String phase, final long nanos) {
+    this.phases.merge(phase, nanos, Long::sum);
+  }
+
+  /**
+   * Records an artifact that was hashed or uploaded.
+   *
+   * @param artifact the artifact
+   */
+  public synchronized void artifact(final Artifact artifact) {
+    this.artifacts.merge(artifact.key(), artifact, Artifact::merge);
+  }
+
+  /**
+   * Records the changes of the upload concurrency.
+   *
+   * @param decisions the changes, oldest first
+   */
+  public synchronized void concurrency(final List<ConcurrencyLimit.Decision> decisions) {
+    this.concurrency = List.copyOf(decisions);
+  }
+
+  /**
+   * Completes the report.
+   *
+   * @param outcome how the publish ended
+   * @param retries the retries made, by endpoint
+   * @return the report contents
+   */
+  public synchronized Contents finish(final Outcome outcome, final Map<String, Integer> retries) {
+    final Map<String, Long> phases = new LinkedHashMap<>();
+    this.phases.forEach((phase, nanos) -> phases.put(phase, TimeUnit.NANOSECONDS.toMillis(nanos)));
+    return new Contents(
+      VERSION,
+      this.started,
+      TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.start),
+      outcome,
+      phases,
+      new ArrayList<>(this.artifacts.values()),
+      retries,
+      this.concurrency
+    );
+  }
+
+  /**
+   * Writes a report to a file.
+   *
+   * @param mapper the mapper
+   * @param file the file
+   * @param contents the report contents
+   * @throws IOException if the report could not be written
+   */
+  public static void write(final ObjectMapper mapper, final Path file, final Contents contents) throws IOException {
+    Files.createDirectories(file.getParent());
+    mapper.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), contents);
+  }
+
+  /**
+   * Summarizes a report in a single line.
+   *
+   * @param contents the report contents
+   * @return the summary
+   */
+  public static String summary(final Contents contents) {
+    final StringBuilder summary = new StringBuilder();
+    summary.append(switch (contents.outcome()) {
+      case PUBLISHED -> "Published in ";
+      case STAGED -> "Staged in ";
+      case FAILED -> "Failed after ";
+    }).append(contents.durationMillis()).append(" ms");
+    contents.phases().forEach((phase, millis) -> summary.append(", ").append(phase).append(' ').append(millis).append(" ms"));
+    long uploaded = 0;
+    long uploadMillis = 0;
+    for (final Artifact artifact : contents.artifacts()) {
+      if (artifact.uploadMillis() != null) {
+        uploaded += artifact.size();
+        uploadMillis += artifact.uploadMillis();
+      }
+    }
+    if (uploadMillis > 0) {
+      summary.append(String.format(", uploaded %.1f MB at %.1f MB/s", uploaded / 1_000_000.0, megabytesPerSecond(uploaded, uploadMillis)));
+    }
+    if (!contents.concurrency().isEmpty()) {
+      summary.append(", upload concurrency ended at ").append(contents.concurrency().getLast().to());
+    }
+    return summary.toString();
+  }
+
+  static double megabytesPerSecond(final long bytes, final long millis) {
+    return millis > 0 ? bytes / 1_000.0 / millis : 0;
+  }
+
+  /**
+   * How a publish ended.
+   */
+  @NullMarked
+  public enum Outcome {
+    @JsonProperty("published")
+    PUBLISHED,
+    @JsonProperty("staged")
+    STAGED,
+    @JsonProperty("failed")
+    FAILED
+  }
+
+  @FunctionalInterface
+  @NullMarked
+  public interface Timer extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  /**
+   * The timings of an artifact.
+   *
+   * @param key the download key
+   * @param name the file name
+   * @param size the size in bytes
+   * @param hashMillis the time spent hashing, if hashed
+   * @param uploadMillis the time from sending the upload until its response, if uploaded
+   * @param uploadMegabytesPerSecond the upload throughput, if uploaded
+   */
+  @NullMarked
+  public record Artifact(
+    String key,
+    String name,
+    long size,
+    @Nullable Long hashMillis,
+    @Nullable Long uploadMillis,
+    @Nullable Double uploadMegabytesPerSecond
+  ) {
+    public static Artifact hashed(final String key, final String name, final long size, final long hashNanos) {
+      return new Artifact(key, name, size, TimeUnit.NANOSECONDS.toMillis(hashNanos), null, null);
+    }
+
+    public static Artifact uploaded(final String key, final String name, final long size, final long hashNanos, final long uploadNanos) {
+      final long uploadMillis = TimeUnit.NANOSECONDS.toMillis(uploadNanos);
+      return new Artifact(key, name, size, TimeUnit.NANOSECONDS.toMillis(hashNanos), uploadMillis, megabytesPerSecond(size, uploadMillis));
+    }
+
+    Artifact merge(final Artifact other) {
+      return new Artifact(
+        this.key,
+        this.name,
+        this.size,
+        sum(this.hashMillis, other.hashMillis),
+        other.uploadMillis != null ? other.uploadMillis : this.uploadMillis,
+        other.uploadMegabytesPerSecond != null ? other.uploadMegabytesPerSecond : this.uploadMegabytesPerSecond
+      );
+    }
+
+    private static @Nullable Long sum(final @Nullable Long a, final @Nullable Long b) {
+      if (a == null) return b;
+      if (b == null) return a;
+      return a + b;
+    }
+  }
+
+  /**
+   * The contents of a report.
+   *
+   * @param version the report format version
+   * @param started when the publish started
+   * @param durationMillis the duration of the publish
+   * @param outcome how the publish ended
+   * @param phases the time spent in each phase, in milliseconds
+   * @param artifacts the artifacts
+   * @param retries the retries made, by endpoint
+   * @param concurrency the changes of the upload concurrency, oldest first
+   */
+  @NullMarked
+  public record Contents(
+    int version,
+    @JsonFormat(shape = JsonFormat.Shape.STRING)
+    Instant started,
+    long durationMillis,
+    Outcome outcome,
+    Map<String, Long> phases,
+    List<Artifact> artifacts,
+    Map<String, Integer> retries,
+    List<ConcurrencyLimit.Decision> concurrency
+  ) {
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Bounds the number of uploads of a task running at the same time.
+ *
+ * <p>An adaptive limit starts at one upload and follows an additive increase, multiplicative decrease
+ * scheme: every healthy response raises it by one upload per limit's worth of responses, up to the
+ * maximum, and a response telling us the server is overloaded halves it. A response is unhealthy when
+ * the server answers {@code 429} or {@code 503}, the request fails, or the server took much longer to
+ * answer than the fastest response seen so far. Requests that were already running when the limit was
+ * halved do not halve it again.</p>
+ *
+ * <p>Uploads take their permit before their work is submitted, and never wait for one, so no work waits
+ * for a permit while it holds a worker lease.</p>
+ */
+@NullMarked
+public final class ConcurrencyLimit {
+  private static final double DECREASE = 0.5;
+  // how much slower than the fastest response a response may be before it counts as rising latency
+  private static final double LATENCY_TOLERANCE = 2;
+  private static final long LATENCY_SLACK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private final int max;
+  private final boolean adaptive;
+  private final long created = System.nanoTime();
+  private final List<Decision> decisions = new ArrayList<>();
+  private double limit;
+  private int running;
+  private long baselineNanos = Long.MAX_VALUE;
+  private long decreased;
+
+  private ConcurrencyLimit(final int max, final boolean adaptive) {
+    this.max = Math.max(1, max);
+    this.adaptive = adaptive;
+    this.limit = adaptive ? 1 : this.max;
+    this.decreased = this.created;
+  }
+
+  /**
+   * Creates a limit that never changes.
+   *
+   * @param limit the limit
+   * @return the limit
+   */
+  public static ConcurrencyLimit fixed(final int limit) {
+    return new ConcurrencyLimit(limit, false);
+  }
+
+  /**
+   * Creates a limit that adapts to the responses of the server.
+   *
+   * @param max the maximum limit
+   * @return the limit
+   */
+  public static ConcurrencyLimit adaptive(final int max) {
+    return new ConcurrencyLimit(max, true);
+  }
+
+  /**
+   * Gets the most uploads that may run at the same time.
+   *
+   * @return the maximum limit
+   */
+  public int max() {
+    return this.max;
+  }
+
+  /**
+   * Lets an upload start, if the limit allows another one.
+   *
+   * @return whether the upload may start
+   */
+  public synchronized boolean tryAcquire() {
+    if (this.running >= this.current()) {
+      return false;
+    }
+    this.running++;
+    return true;
+  }
+
+  /**
+   * Ends an upload that was allowed to start.
+   */
+  public synchronized void release() {
+    this.running--;
+  }
+
+  /**
+   * Records the response to a request of an upload.
+   *
+   * @param startNanos when the request was sent, from {@link System#nanoTime()}
+   * @param status the response status
+   * @param latencyNanos how long the server took to answer once the request was sent
+   * @return the change of the limit, or {@code null} if it did not change
+   */
+  public synchronized @Nullable Decision response(final long startNanos, final int status, final long latencyNanos) {
+    if (!this.adaptive) {
+      return null;
+    }
+    if (status == 429 || status == 503) {
+      return this.decrease(startNanos, "status " + status);
+    }
+    if (status < 200 || status >= 300) {
+      // the request was wrong, which says nothing about the load of the server
+      return null;
+    }
+    if (this.baselineNanos != Long.MAX_VALUE && latencyNanos > this.baselineNanos * LATENCY_TOLERANCE + LATENCY_SLACK_NANOS) {
+      return this.decrease(startNanos, String.format("latency %d ms, fastest %d ms", TimeUnit.NANOSECONDS.toMillis(latencyNanos), TimeUnit.NANOSECONDS.toMillis(this.baselineNanos)));
+    }
+    this.baselineNanos = Math.min(this.baselineNanos, latencyNanos);
+    return this.increase();
+  }
+
+  /**
+   * Records a request of an upload that failed without a response.
+   *
+   * @param startNanos when the request was sent, from {@link System#nanoTime()}
+   * @param reason why the request failed
+   * @return the change of the limit, or {@code null} if it did not change
+   */
+  public synchronized @Nullable Decision failure(final long startNanos, final String reason) {
+    if (!this.adaptive) {
+      return null;
+    }
+    return this.decrease(startNanos, reason);
+  }
+
+  /**
+   * Gets the changes of the limit so far, oldest first.
+   *
+   * @return the changes
+   */
+  public synchronized List<Decision> decisions() {
+    return List.copyOf(this.decisions);
+  }
+
+  private int current() {
+    return (int) this.limit;
+  }
+
+  private @Nullable Decision increase() {
+    final int before = this.current();
+    this.limit = Math.min(this.max, this.limit + 1 / this.limit);
+    if (this.current() == before) {
+      return null;
+    }
+    return this.decide(before, "healthy responses");
+  }
+
+  private @Nullable Decision decrease(final long startNanos, final String reason) {
+    if (startNanos - this.decreased < 0) {
+      // sent before the last decrease, which already accounted for it
+      return null;
+    }
+    final int before = this.current();
+    this.decreased = System.nanoTime();
+    this.limit = Math.max(1, this.limit * DECREASE);
+    if (this.current() == before) {
+      return null;
+    }
+    return this.decide(before, reason);
+  }
+
+  private Decision decide(final int before, final String reason) {
+    final Decision decision = new Decision(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.created), before, this.current(), reason);
+    this.decisions.add(decision);
+    return decision;
+  }
+
+  /**
+   * A change of the limit.
+   *
+   * @param atMillis when the limit changed, since it was created
+   * @param from the limit before
+   * @param to the limit after
+   * @param reason why the limit changed
+   */
+  @NullMarked
+  public record Decision(
+    long atMillis,
+    int from,
+    int to,
+    String reason
+  ) {
+  }
+}
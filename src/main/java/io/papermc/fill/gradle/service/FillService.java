@@ -0,0 +1,130 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.service;
+
+import io.papermc.fill.gradle.http.MetadataCache;
+import io.papermc.fill.gradle.http.TokenBucket;
+import io.papermc.fill.gradle.task.PublishToFillTask;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Holds the HTTP client shared by every Fill task in a build, so connections are reused
+ * across tasks and closed when the build finishes.
+ */
+@NullMarked
+public abstract class FillService implements BuildService<FillService.Parameters>, AutoCloseable {
+  public static final String NAME = "fill";
+  private static final long METADATA_CACHE_SIZE = 32 * 1024 * 1024;
+  private final HttpClient client;
+  private final MetadataCache metadata;
+  private final @Nullable TokenBucket uploadBandwidth;
+  private final Map<UUID, UploadBatch> uploadBatches = new ConcurrentHashMap<>();
+
+  public FillService() {
+    this.client = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_2)
+      .connectTimeout(this.getParameters().getConnectTimeout().get())
+      .build();
+    this.metadata = new MetadataCache(
+      PublishToFillTask.MapperHolder.MAPPER,
+      this.getParameters().getCacheDirectory().dir("metadata").get().getAsFile().toPath(),
+      METADATA_CACHE_SIZE
+    );
+    final Long bandwidth = this.getParameters().getUploadBandwidth().getOrNull();
+    this.uploadBandwidth = bandwidth != null ? new TokenBucket(bandwidth, this.getParameters().getUploadBurst().getOrElse(bandwidth)) : null;
+  }
+
+  /**
+   * Gets the shared HTTP client.
+   *
+   * @return the client
+   */
+  public HttpClient client() {
+    return this.client;
+  }
+
+  /**
+   * Gets the api metadata cache.
+   *
+   * @return the metadata cache
+   */
+  public MetadataCache metadata() {
+    return this.metadata;
+  }
+
+  /**
+   * Gets the token bucket limiting the bandwidth of every upload in the build.
+   *
+   * @return the token bucket, or {@code null} if uploads are not limited
+   */
+  public @Nullable TokenBucket uploadBandwidth() {
+    return this.uploadBandwidth;
+  }
+
+  /**
+   * Opens a batch of uploads, which the work actions running them look up by its id until it is closed.
+   *
+   * @param limit the limit of the uploads running at the same time
+   * @param failures receives the failures of the uploads
+   * @return the batch
+   */
+  public UploadBatch openUploadBatch(final ConcurrencyLimit limit, final Consumer<Throwable> failures) {
+    final UploadBatch batch = new UploadBatch(limit, failures, closed -> this.uploadBatches.remove(closed.id()));
+    this.uploadBatches.put(batch.id(), batch);
+    return batch;
+  }
+
+  /**
+   * Gets an open batch of uploads.
+   *
+   * @param id the id of the batch
+   * @return the batch
+   */
+  public UploadBatch uploadBatch(final UUID id) {
+    final UploadBatch batch = this.uploadBatches.get(id);
+    if (batch == null) {
+      throw new IllegalStateException("Upload batch " + id + " is not open");
+    }
+    return batch;
+  }
+
+  @Override
+  public void close() {
+    this.client.close();
+  }
+
+  @NullMarked
+  public interface Parameters extends BuildServiceParameters {
+    Property<Duration> getConnectTimeout();
+
+    DirectoryProperty getCacheDirectory();
+
+    Property<Long> getUploadBandwidth();
+
+    Property<Long> getUploadBurst();
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.service;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * The uploads of a task, shared by the task and the work actions running them.
+ *
+ * <p>The task submits the uploads in rounds: it {@link #reserve() reserves} a permit of the limit for as many
+ * uploads as may start, submits one work action for each of them, and waits for the round before reserving
+ * the next. Each action takes one upload and releases its permit. Once the batch is cancelled no more uploads
+ * are taken, and the running ones are interrupted.</p>
+ */
+@NullMarked
+public final class UploadBatch implements AutoCloseable {
+  private final UUID id = UUID.randomUUID();
+  private final ConcurrencyLimit limit;
+  private final Consumer<Throwable> failures;
+  private final Consumer<UploadBatch> closed;
+  private final Queue<Upload> uploads = new ArrayDeque<>();
+  private final Set<Progress> progress = new LinkedHashSet<>();
+  private final Set<Thread> running = new HashSet<>();
+  private final Set<Thread> interrupted = new HashSet<>();
+  private int reserved;
+  private boolean cancelled;
+
+  UploadBatch(final ConcurrencyLimit limit, final Consumer<Throwable> failures, final Consumer<UploadBatch> closed) {
+    this.limit = limit;
+    this.failures = failures;
+    this.closed = closed;
+  }
+
+  public UUID id() {
+    return this.id;
+  }
+
+  public ConcurrencyLimit limit() {
+    return this.limit;
+  }
+
+  /**
+   * Adds an upload to the batch.
+   *
+   * @param upload the upload
+   */
+  public synchronized void add(final Upload upload) {
+    this.uploads.add(upload);
+  }
+
+  /**
+   * Gets the number of uploads that were not taken yet.
+   *
+   * @return the number of uploads
+   */
+  public synchronized int size() {
+    return this.uploads.size();
+  }
+
+  /**
+   * Takes permits of the limit for the next round of uploads, before submitting the work running them.
+   *
+   * @return the number of uploads that may start, {@code 0} once none are left or the batch is cancelled
+   */
+  public synchronized int reserve() {
+    int permits = 0;
+    while (!this.cancelled && permits < this.uploads.size() - this.reserved && this.limit.tryAcquire()) {
+      permits++;
+    }
+    this.reserved += permits;
+    return permits;
+  }
+
+  /**
+   * Releases the permit reserved for the work action running on the current thread.
+   */
+  public synchronized void release() {
+    if (this.reserved > 0) {
+      this.reserved--;
+      this.limit.release();
+    }
+  }
+
+  /**
+   * Starts taking uploads on the current thread.
+   *
+   * @return whether uploads may be taken, {@code false} once the batch is cancelled
+   */
+  public synchronized boolean enter() {
+    if (this.cancelled) {
+      return false;
+    }
+    this.running.add(Thread.currentThread());
+    return true;
+  }
+
+  /**
+   * Takes the next upload.
+   *
+   * @return the upload, or {@code null} once none are left or the batch is cancelled
+   */
+  public synchronized @Nullable Upload next() {
+    return this.cancelled ? null : this.uploads.poll();
+  }
+
+  /**
+   * Records the failure of an upload taken on the current thread.
+   *
+   * <p>A failure caused by cancelling the batch is not reported.</p>
+   *
+   * @param failure the failure
+   */
+  public void fail(final Throwable failure) {
+    synchronized (this) {
+      if (this.interrupted.contains(Thread.currentThread())) {
+        return;
+      }
+    }
+    this.failures.accept(failure);
+  }
+
+  /**
+   * Stops taking uploads on the current thread.
+   *
+   * <p>An interrupt caused by cancelling the batch is cleared, so it does not leak into the next work the
+   * thread runs.</p>
+   */
+  public synchronized void exit() {
+    final Thread thread = Thread.currentThread();
+    this.running.remove(thread);
+    if (this.interrupted.remove(thread)) {
+      Thread.interrupted();
+    }
+  }
+
+  /**
+   * Cancels the uploads that did not finish yet.
+   */
+  public synchronized void cancel() {
+    if (this.cancelled) {
+      return;
+    }
+    this.cancelled = true;
+    for (final Thread thread : this.running) {
+      this.interrupted.add(thread);
+      thread.interrupt();
+    }
+  }
+
+  /**
+   * Shows the progress of an upload until it {@link #finished(Progress) finished}.
+   *
+   * @param progress the progress
+   */
+  public synchronized void started(final Progress progress) {
+    this.progress.add(progress);
+  }
+
+  public synchronized void finished(final Progress progress) {
+    this.progress.remove(progress);
+  }
+
+  /**
+   * Gets the progress of the running uploads.
+   *
+   * @return the progress
+   */
+  public synchronized Set<Progress> progress() {
+    return new LinkedHashSet<>(this.progress);
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      // permits of work that never ran
+      for (; this.reserved > 0; this.reserved--) {
+        this.limit.release();
+      }
+    }
+    this.closed.accept(this);
+  }
+
+  /**
+   * A file to upload.
+   *
+   * @param name the name of the download
+   * @param file the file
+   * @param result the file the result of the upload is written to
+   */
+  @NullMarked
+  public record Upload(String name, Path file, Path result) {
+  }
+
+  /**
+   * The progress of a running upload.
+   */
+  @NullMarked
+  public interface Progress {
+    String name();
+
+    long total();
+
+    /**
+     * Gets the number of bytes sent so far.
+     *
+     * @return the number of bytes
+     */
+    long sent();
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.spool;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.papermc.fill.gradle.task.PublishToFillTask;
+import io.papermc.fill.model.Download;
+import io.papermc.fill.model.request.PublishRequest;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A directory of staged publishes, waiting to be sent to the api in the order they were staged.
+ *
+ * <p>Each entry is a directory holding the publish request and a copy of the files of its downloads, so
+ * rebuilding a download does not change what was staged. An entry is moved into place once it is
+ * complete, so a failed stage never leaves a partial entry behind.</p>
+ */
+@NullMarked
+public final class Spool {
+  private static final ObjectMapper MAPPER = PublishToFillTask.MapperHolder.MAPPER;
+  private static final String REQUEST = "request.json";
+  private static final String FILES = "files";
+  private static final String UPLOADED = "uploaded";
+  private static final String PUBLISHING = "publishing";
+  private static final String STAGING_PREFIX = ".";
+  private final Path directory;
+
+  public Spool(final Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Stages a publish.
+   *
+   * @param request the publish request
+   * @param files the files of the downloads of the request, by download key
+   * @return the staged entry
+   * @throws IOException if the entry could not be written
+   */
+  public synchronized Entry stage(final PublishRequest request, final Map<String, Path> files) throws IOException {
+    Files.createDirectories(this.directory);
+    final String name = this.nextName(request);
+    final Path staging = this.directory.resolve(STAGING_PREFIX + name);
+    try {
+      Files.createDirectories(staging.resolve(FILES));
+      Files.createDirectories(staging.resolve(UPLOADED));
+      final Set<String> names = new HashSet<>();
+      for (final Map.Entry<String, Download> download : request.downloads().entrySet()) {
+        final String fileName = download.getValue().name();
+        if (!names.add(fileName)) {
+          throw new IOException("More than one download is named " + fileName);
+        }
+        final Path file = files.get(download.getKey());
+        if (file == null) {
+          throw new IOException("Missing file for " + fileName);
+        }
+        Files.copy(file, staging.resolve(FILES).resolve(fileName));
+      }
+      MAPPER.writeValue(staging.resolve(REQUEST).toFile(), request);
+      Files.move(staging, this.directory.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      delete(staging);
+    }
+    return new Entry(this.directory.resolve(name));
+  }
+
+  /**
+   * Gets the staged entries, oldest first.
+   *
+   * @return the entries
+   * @throws IOException if the spool could not be listed
+   */
+  public synchronized List<Entry> entries() throws IOException {
+    if (!Files.isDirectory(this.directory)) {
+      return List.of();
+    }
+    try (final Stream<Path> children = Files.list(this.directory)) {
+      return children
+        .filter(child -> !child.getFileName().toString().startsWith(STAGING_PREFIX) && Files.isRegularFile(child.resolve(REQUEST)))
+        .sorted(Comparator.comparing(child -> child.getFileName().toString()))
+        .map(Entry::new)
+        .toList();
+    }
+  }
+
+  /**
+   * Gets the newest commit of the newest staged publish of a project, which the next publish
+   * of the project continues from.
+   *
+   * @param project the project
+   * @return the commit sha, or {@code null} if no publish of the project with commits is staged
+   * @throws IOException if an entry could not be read
+   */
+  public @Nullable String lastCommit(final String project) throws IOException {
+    for (final Entry entry : this.entries().reversed()) {
+      final PublishRequest request = entry.request();
+      // commits are published oldest first
+      if (request.project().equals(project) && !request.commits().isEmpty()) {
+        return request.commits().getLast().sha();
+      }
+    }
+    return null;
+  }
+
+  private String nextName(final PublishRequest request) throws IOException {
+    long sequence = System.currentTimeMillis();
+    final List<Entry> entries = this.entries();
+    if (!entries.isEmpty()) {
+      // the clock can go backwards, the order of entries must not
+      sequence = Math.max(sequence, entries.getLast().sequence() + 1);
+    }
+    return String.format("%019d-%s", sequence, request.id());
+  }
+
+  static void delete(final Path path) throws IOException {
+    if (!Files.exists(path)) {
+      return;
+    }
+    final List<Path> paths = new ArrayList<>();
+    try (final Stream<Path> walk = Files.walk(path)) {
+      walk.forEach(paths::add);
+    }
+    for (final Path child : paths.reversed()) {
+      Files.deleteIfExists(child);
+    }
+  }
+
+  /**
+   * A staged publish.
+   */
+  @NullMarked
+  public static final class Entry {
+    private final Path directory;
+
+    Entry(final Path directory) {
+      this.directory = directory;
+    }
+
+    /**
+     * Gets the name of the entry, which orders it in the spool.
+     *
+     * @return the name
+     */
+    public String name() {
+      return this.directory.getFileName().toString();
+    }
+
+    /**
+     * Reads the publish request of the entry.
+     *
+     * @return the publish request
+     * @throws IOException if the request could not be read
+     */
+    public PublishRequest request() throws IOException {
+      return MAPPER.readValue(this.directory.resolve(REQUEST).toFile(), PublishRequest.class);
+    }
+
+    /**
+     * Gets the staged file of a download.
+     *
+     * @param download the download
+     * @return the file
+     */
+    public Path file(final Download download) {
+      return this.directory.resolve(FILES).resolve(download.name());
+    }
+
+    /**
+     * Gets the file the result of uploading a download is written to. An existing result means the
+     * api acknowledged the upload.
+     *
+     * @param download the download
+     * @return the result file
+     */
+    public Path uploadResult(final Download download) {
+      return this.directory.resolve(UPLOADED).resolve(download.name() + ".json");
+    }
+
+    /**
+     * Checks whether the publish request of the entry was sent before without the api answering it,
+     * so it may have published the build.
+     *
+     * @return whether the outcome of an earlier request is unknown
+     */
+    public boolean publishing() {
+      return Files.exists(this.directory.resolve(PUBLISHING));
+    }
+
+    /**
+     * Records that the publish request of the entry is about to be sent, so a later flush can tell
+     * a build it published itself from a conflicting build.
+     *
+     * @throws IOException if the marker could not be written
+     */
+    public void markPublishing() throws IOException {
+      Files.write(this.directory.resolve(PUBLISHING), new byte[0]);
+    }
+
+    /**
+     * Clears the marker of {@link #markPublishing()}, once the api answered that the build was not published.
+     *
+     * @throws IOException if the marker could not be deleted
+     */
+    public void clearPublishing() throws IOException {
+      Files.deleteIfExists(this.directory.resolve(PUBLISHING));
+    }
+
+    /**
+     * Deletes the entry, once it has been published.
+     *
+     * @throws IOException if the entry could not be deleted
+     */
+    public void delete() throws IOException {
+      Spool.delete(this.directory);
+    }
+
+    long sequence() {
+      final String name = this.name();
+      return Long.parseLong(name.substring(0, name.indexOf('-')));
+    }
+  }
+}
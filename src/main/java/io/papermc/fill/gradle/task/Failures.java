@@ -0,0 +1,121 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.task;
+
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import org.gradle.api.GradleException;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Collects the failures of work running at the same time into a single failure.
+ *
+ * <p>The first failure cancels the rest of the work. Failures of other work are added to it as suppressed
+ * exceptions, unless they were caused by cancelling that work.</p>
+ */
+@NullMarked
+final class Failures {
+  private final List<Runnable> cancellations = new ArrayList<>();
+  private @Nullable RuntimeException failure;
+
+  /**
+   * Registers how to cancel some of the work, run at once if the work already failed.
+   *
+   * @param cancellation cancels the work
+   */
+  void onFailure(final Runnable cancellation) {
+    synchronized (this) {
+      if (this.failure == null) {
+        this.cancellations.add(cancellation);
+        return;
+      }
+    }
+    cancellation.run();
+  }
+
+  /**
+   * Records a failure.
+   *
+   * @param failure the failure
+   */
+  void add(final Throwable failure) {
+    final List<Runnable> cancellations;
+    synchronized (this) {
+      if (this.failure != null) {
+        if (!this.causedBy(failure) && !cancelled(failure)) {
+          this.failure.addSuppressed(failure);
+        }
+        return;
+      }
+      this.failure = failure instanceof final RuntimeException runtime ? runtime : new GradleException(failure.getMessage(), failure);
+      cancellations = List.copyOf(this.cancellations);
+      this.cancellations.clear();
+    }
+    cancellations.forEach(Runnable::run);
+  }
+
+  /**
+   * Records a failure, returning the first failure to be thrown.
+   *
+   * @param failure the failure
+   * @return the first failure
+   */
+  RuntimeException fail(final Throwable failure) {
+    this.add(failure);
+    synchronized (this) {
+      return Objects.requireNonNull(this.failure);
+    }
+  }
+
+  /**
+   * Throws the first failure, if any work failed.
+   */
+  void rethrow() {
+    final RuntimeException failure;
+    synchronized (this) {
+      failure = this.failure;
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private boolean causedBy(final Throwable failure) {
+    for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+      if (cause == this.failure) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean cancelled(final Throwable failure) {
+    for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+      if (cause instanceof InterruptedException
+        || cause instanceof InterruptedIOException
+        || cause instanceof ClosedByInterruptException
+        || cause instanceof CancellationException) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
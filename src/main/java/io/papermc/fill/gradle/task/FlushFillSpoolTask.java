@@ -0,0 +1,266 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.task;
+
+import com.google.common.hash.Hashing;
+import io.papermc.fill.gradle.checksum.ChecksumCache;
+import io.papermc.fill.gradle.http.Deadline;
+import io.papermc.fill.gradle.http.RetryPolicy;
+import io.papermc.fill.gradle.http.RetryingHttpClient;
+import io.papermc.fill.gradle.service.ConcurrencyLimit;
+import io.papermc.fill.gradle.service.FillService;
+import io.papermc.fill.gradle.service.UploadBatch;
+import io.papermc.fill.gradle.spool.Spool;
+import io.papermc.fill.model.Checksums;
+import io.papermc.fill.model.Download;
+import io.papermc.fill.model.request.PublishRequest;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.inject.Inject;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.ServiceReference;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.UntrackedTask;
+import org.gradle.workers.WorkerExecutor;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Publishes the builds staged by {@link PublishToFillTask#STAGE_NAME}, oldest first.
+ *
+ * <p>Flushing stops at the first build that fails to publish, so builds are never published out of order.
+ * A build keeps its session id, and uploads the api acknowledged are not sent again, so a failed flush
+ * can simply be run again.</p>
+ */
+@NullMarked
+@UntrackedTask(because = "FlushFillSpoolTask should always run when requested")
+public abstract class FlushFillSpoolTask extends DefaultTask {
+  public static final String NAME = "flushFillSpool";
+
+  public FlushFillSpoolTask() {
+    this.setGroup("fill");
+    this.setDescription("Publish the builds staged for Fill");
+  }
+
+  @Input
+  public abstract Property<String> getApiUrl();
+
+  @Input
+  public abstract Property<String> getApiToken();
+
+  @Internal
+  public abstract Property<Integer> getUploadConcurrency();
+
+  @Internal
+  public abstract Property<Boolean> getAdaptiveUploadConcurrency();
+
+  @Internal
+  public abstract Property<Long> getUploadChunkSize();
+
+  @Internal
+  public abstract Property<Duration> getRequestTimeout();
+
+  @Internal
+  public abstract Property<Duration> getUploadStallTimeout();
+
+  /**
+   * Whether upload progress is shown through Gradle's internal progress loggers, or absent to use them on the
+   * Gradle versions the plugin is tested with.
+   *
+   * @return whether to use progress loggers
+   */
+  @Internal
+  public abstract Property<Boolean> getProgressLoggers();
+
+  /**
+   * How long the whole task may take, bounding the timeout and retries of every request it sends.
+   *
+   * @return the timeout
+   */
+  @Internal
+  public abstract Property<Duration> getPublishTimeout();
+
+  @Internal
+  public abstract Property<RetryPolicy> getRetryPolicy();
+
+  /**
+   * The directory staged publishes are read from.
+   *
+   * @return the spool directory
+   */
+  @Internal
+  public abstract DirectoryProperty getSpoolDirectory();
+
+  /**
+   * The file the checksums of staged files are cached in, so they are only hashed once.
+   *
+   * @return the checksum cache file
+   */
+  @Internal
+  public abstract RegularFileProperty getChecksumCacheFile();
+
+  @Inject
+  public abstract WorkerExecutor getWorkerExecutor();
+
+  @ServiceReference(FillService.NAME)
+  public abstract Property<FillService> getService();
+
+  @TaskAction
+  public void run() {
+    final Spool spool = new Spool(this.getSpoolDirectory().get().getAsFile().toPath());
+    final List<Spool.Entry> entries;
+    try {
+      entries = spool.entries();
+    } catch (final IOException e) {
+      throw new GradleException("Failed to read spool " + this.getSpoolDirectory().get().getAsFile(), e);
+    }
+    if (entries.isEmpty()) {
+      this.getLogger().lifecycle("No staged builds to publish");
+      return;
+    }
+
+    final Deadline deadline = Deadline.after(this.getPublishTimeout().getOrNull());
+    final RetryingHttpClient client = new RetryingHttpClient(this.getService().get().client(), this.getRetryPolicy().get(), this.getLogger(), deadline);
+    final Map<String, Integer> retries = new TreeMap<>();
+    final ChecksumCache checksums = ChecksumCache.load(this.getChecksumCacheFile().get().getAsFile().toPath());
+    // entries are flushed one after another, so they share the limit and what it learned
+    final ConcurrencyLimit limit = PublishToFillTask.uploadLimit(this.getUploadConcurrency().get(), this.getAdaptiveUploadConcurrency().get());
+    try {
+      for (final Spool.Entry entry : entries) {
+        this.flush(client, checksums, entry, retries, limit);
+      }
+    } finally {
+      try {
+        checksums.save();
+      } catch (final IOException e) {
+        this.getLogger().warn("Failed to save checksum cache", e);
+      }
+      client.retries().forEach((endpoint, count) -> retries.merge(endpoint, count, Integer::sum));
+      if (!retries.isEmpty()) {
+        this.getLogger().warn("Retried requests to the API: {}", retries);
+      }
+    }
+  }
+
+  private void flush(final RetryingHttpClient client, final ChecksumCache checksums, final Spool.Entry entry, final Map<String, Integer> retries, final ConcurrencyLimit limit) {
+    try {
+      final PublishRequest request = entry.request();
+      this.verify(checksums, entry, request);
+      PublishToFillTask.checkDeadline(client.deadline(), "uploading staged build " + entry.name());
+      this.upload(entry, request, retries, client.deadline(), limit);
+      PublishToFillTask.checkDeadline(client.deadline(), "publishing staged build " + entry.name());
+
+      final boolean resumed = entry.publishing();
+      // the marker stays if no answer comes back, as the request may still have published the build
+      entry.markPublishing();
+      final HttpResponse<String> response = PublishToFillTask.sendPublish(client, this.getApiUrl().get(), this.getApiToken().get(), this.getRequestTimeout().getOrNull(), request);
+      if (response.statusCode() == 409 && resumed) {
+        // published by an earlier flush that got no answer
+        this.getLogger().lifecycle("Build {} of {} {} was already published", request.build(), request.project(), request.version());
+      } else if (response.statusCode() != 201) {
+        if (!resumed) {
+          // the api answered, so this build was not published and a later conflict is not its own
+          entry.clearPublishing();
+        }
+        throw new GradleException("Failed to publish staged build " + entry.name() + ": " + response.statusCode() + ": " + response.body());
+      } else {
+        this.getLogger().lifecycle("Published staged build {} of {} {}", request.build(), request.project(), request.version());
+      }
+      entry.delete();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GradleException("Interrupted while publishing staged build " + entry.name(), e);
+    } catch (final IOException e) {
+      throw new GradleException("Failed to publish staged build " + entry.name() + ": " + e.getMessage(), e);
+    }
+  }
+
+  private void verify(final ChecksumCache checksums, final Spool.Entry entry, final PublishRequest request) throws IOException {
+    for (final Download download : request.downloads().values()) {
+      if (UploadAction.Result.read(entry.uploadResult(download)) != null) {
+        continue;
+      }
+      final Path file = entry.file(download);
+      ChecksumCache.Checksum checksum = null;
+      if (Files.size(file) == download.size()) {
+        checksum = checksums.get(file);
+        if (checksum == null) {
+          final BasicFileAttributes attributes = ChecksumCache.attributes(file);
+          checksum = new ChecksumCache.Checksum(new Checksums(com.google.common.io.Files.asByteSource(file.toFile()).hash(Hashing.sha256()).toString()), download.size());
+          checksums.put(file, attributes, checksum);
+        }
+      }
+      if (checksum == null || !checksum.checksums().sha256().equals(download.checksums().sha256())) {
+        throw new GradleException("Staged file " + download.name() + " of " + entry.name() + " does not match the staged request, stage the build again");
+      }
+    }
+  }
+
+  private void upload(final Spool.Entry entry, final PublishRequest request, final Map<String, Integer> retries, final Deadline deadline, final ConcurrencyLimit limit) throws IOException {
+    final Set<Download> submitted = new HashSet<>();
+    final List<UploadBatch.Upload> uploads = new ArrayList<>();
+    for (final Download download : request.downloads().values()) {
+      if (UploadAction.Result.read(entry.uploadResult(download)) != null) {
+        continue;
+      }
+      submitted.add(download);
+      uploads.add(new UploadBatch.Upload(download.name(), entry.file(download), entry.uploadResult(download)));
+    }
+    // a lambda, so a change of the internal api fails inside the display
+    final ProgressDisplay display = ProgressDisplay.create(() -> this.getServices(), this.getLogger(), this.getProgressLoggers().getOrNull());
+    PublishToFillTask.runUploads(this.getWorkerExecutor(), this.getService(), limit, uploads, new Failures(), display, parameters -> {
+      parameters.getOwner().set(this.getPath());
+      parameters.getApiUrl().set(this.getApiUrl());
+      parameters.getApiToken().set(this.getApiToken());
+      parameters.getSessionId().set(request.id().toString());
+      parameters.getChunkSize().set(this.getUploadChunkSize());
+      parameters.getRequestTimeout().set(this.getRequestTimeout());
+      parameters.getStallTimeout().set(this.getUploadStallTimeout());
+      parameters.getDeadline().set(deadline);
+      parameters.getRetryPolicy().set(this.getRetryPolicy());
+    });
+
+    for (final Download download : request.downloads().values()) {
+      final UploadAction.Result result = UploadAction.Result.read(entry.uploadResult(download));
+      if (result == null) {
+        throw new GradleException("Missing upload result of " + download.name());
+      }
+      if (!result.checksums().sha256().equals(download.checksums().sha256()) || result.size() != download.size()) {
+        // the staged file changed while it was uploaded
+        Files.deleteIfExists(entry.uploadResult(download));
+        throw new GradleException("Staged file " + download.name() + " of " + entry.name() + " changed after it was staged, stage the build again");
+      }
+      if (submitted.contains(download)) {
+        result.retries().forEach((endpoint, count) -> retries.merge(endpoint, count, Integer::sum));
+      }
+    }
+  }
+}
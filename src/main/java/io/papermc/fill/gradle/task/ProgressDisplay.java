@@ -0,0 +1,231 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.task;
+
+import io.papermc.fill.gradle.service.UploadBatch;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.gradle.api.logging.LogLevel;
+import org.gradle.api.logging.Logger;
+import org.gradle.internal.logging.progress.ProgressLogger;
+import org.gradle.internal.logging.progress.ProgressLoggerFactory;
+import org.gradle.internal.service.ServiceRegistry;
+import org.gradle.util.GradleVersion;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Shows the bytes sent, throughput and remaining time of the uploads of a batch.
+ *
+ * <p>Progress is shown through Gradle's progress loggers, which are internal api. They are only used on the
+ * Gradle versions the plugin is tested with, unless the Gradle property {@value PublishToFillTask#PROGRESS_LOGGERS} turns them
+ * on or off. Otherwise, the status of long uploads is logged instead, at info level every second and at
+ * lifecycle level every 10 seconds.</p>
+ */
+@NullMarked
+final class ProgressDisplay {
+  private static final GradleVersion FIRST_SUPPORTED = GradleVersion.version("8.0");
+  private static final GradleVersion FIRST_UNSUPPORTED = GradleVersion.version("10.0");
+  private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+  // weight of the latest interval in the reported throughput
+  private static final double SMOOTHING = 0.3;
+  private final Function<UploadBatch.Progress, Line> lines;
+
+  private ProgressDisplay(final Function<UploadBatch.Progress, Line> lines) {
+    this.lines = lines;
+  }
+
+  /**
+   * Creates a display for a task.
+   *
+   * @param services gets the services of the task
+   * @param logger the logger of the task
+   * @param progressLoggers whether to use progress loggers, or {@code null} to use them on supported Gradle versions
+   * @return the display
+   */
+  static ProgressDisplay create(final Supplier<?> services, final Logger logger, final @Nullable Boolean progressLoggers) {
+    if (progressLoggers != null ? progressLoggers : supported(GradleVersion.current())) {
+      try {
+        final Function<UploadBatch.Progress, Line> lines = ProgressLoggerLine.lines(services.get());
+        if (lines != null) {
+          return new ProgressDisplay(lines);
+        }
+      } catch (final RuntimeException | LinkageError e) {
+        logger.debug("Progress loggers are not available, logging upload status instead", e);
+      }
+    }
+    return new ProgressDisplay(progress -> new LoggedLine(logger, progress.name()));
+  }
+
+  private static boolean supported(final GradleVersion version) {
+    final GradleVersion base = version.getBaseVersion();
+    return base.compareTo(FIRST_SUPPORTED) >= 0 && base.compareTo(FIRST_UNSUPPORTED) < 0;
+  }
+
+  /**
+   * Shows the progress of a batch until closed.
+   *
+   * @param batch the batch
+   * @return stops showing the progress
+   */
+  Showing show(final UploadBatch batch) {
+    final Thread thread = Thread.ofVirtual().name("fill-upload-progress").start(() -> this.poll(batch));
+    return () -> {
+      thread.interrupt();
+      try {
+        thread.join();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    };
+  }
+
+  private void poll(final UploadBatch batch) {
+    final Map<UploadBatch.Progress, Shown> shown = new HashMap<>();
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        TimeUnit.NANOSECONDS.sleep(INTERVAL_NANOS);
+        final long now = System.nanoTime();
+        final Set<UploadBatch.Progress> running = batch.progress();
+        shown.entrySet().removeIf(entry -> {
+          if (running.contains(entry.getKey())) {
+            return false;
+          }
+          entry.getValue().line().completed();
+          return true;
+        });
+        for (final UploadBatch.Progress progress : running) {
+          shown.computeIfAbsent(progress, key -> new Shown(this.lines.apply(key), now)).update(progress, now);
+        }
+      }
+    } catch (final InterruptedException e) {
+      // closed
+    } finally {
+      shown.values().forEach(line -> line.line().completed());
+    }
+  }
+
+  static String status(final long sent, final long total, final double bytesPerSecond) {
+    final StringBuilder status = new StringBuilder()
+      .append(String.format("%.1f/%.1f MB", sent / 1_000_000.0, total / 1_000_000.0));
+    if (bytesPerSecond > 0) {
+      status.append(String.format(", %.1f MB/s, %d s left", bytesPerSecond / 1_000_000.0, (long) Math.ceil(Math.max(0, total - sent) / bytesPerSecond)));
+    }
+    return status.toString();
+  }
+
+  interface Showing extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  private interface Line {
+    void update(String status, long now);
+
+    void completed();
+  }
+
+  @NullMarked
+  private static final class Shown {
+    private final Line line;
+    private long last;
+    private long lastSent;
+    private double rate;
+
+    Shown(final Line line, final long now) {
+      this.line = line;
+      this.last = now;
+    }
+
+    Line line() {
+      return this.line;
+    }
+
+    void update(final UploadBatch.Progress progress, final long now) {
+      final long sent = progress.sent();
+      // a retried attempt starts over, which goes backwards
+      final double interval = Math.max(0, sent - this.lastSent) / ((now - this.last) / 1e9);
+      this.rate = this.rate == 0 ? interval : SMOOTHING * interval + (1 - SMOOTHING) * this.rate;
+      this.last = now;
+      this.lastSent = sent;
+      this.line.update(status(sent, progress.total(), this.rate), now);
+    }
+  }
+
+  // the only place the internal api is used, so the display falls back to logging if it changes
+  @NullMarked
+  private static final class ProgressLoggerLine implements Line {
+    private final ProgressLogger logger;
+
+    ProgressLoggerLine(final ProgressLogger logger, final UploadBatch.Progress progress) {
+      this.logger = logger;
+      this.logger.start("Upload " + progress.name(), status(0, progress.total(), 0));
+    }
+
+    static @Nullable Function<UploadBatch.Progress, Line> lines(final Object services) {
+      if (services instanceof final ServiceRegistry registry && registry.find(ProgressLoggerFactory.class) instanceof final ProgressLoggerFactory factory) {
+        return progress -> new ProgressLoggerLine(factory.newOperation(UploadAction.class), progress);
+      }
+      return null;
+    }
+
+    @Override
+    public void update(final String status, final long now) {
+      this.logger.progress(status);
+    }
+
+    @Override
+    public void completed() {
+      this.logger.completed();
+    }
+  }
+
+  @NullMarked
+  private static final class LoggedLine implements Line {
+    private final Logger logger;
+    private final String name;
+    private @Nullable Long logged;
+
+    LoggedLine(final Logger logger, final String name) {
+      this.logger = logger;
+      this.name = name;
+    }
+
+    @Override
+    public void update(final String status, final long now) {
+      // short uploads are not logged at all
+      if (this.logged == null) {
+        this.logged = now;
+        return;
+      }
+      LogLevel level = LogLevel.INFO;
+      if (now - this.logged >= LOG_INTERVAL_NANOS) {
+        this.logged = now;
+        level = LogLevel.LIFECYCLE;
+      }
+      this.logger.log(level, "Uploading {}: {}", this.name, status);
+    }
+
+    @Override
+    public void completed() {
+    }
+  }
+}
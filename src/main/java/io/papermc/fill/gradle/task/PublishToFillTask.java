@@ -15,93 +15,326 @@
  */
 package io.papermc.fill.gradle.task;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-import com.google.common.hash.Hashing;
-import io.papermc.fill.gradle.FillExtension;
+import com.google.common.hash.HashCode;
+import io.papermc.fill.gradle.checksum.ChecksumAlgorithm;
+import io.papermc.fill.gradle.checksum.ChecksumCache;
+import io.papermc.fill.gradle.checksum.ChecksumFunction;
+import io.papermc.fill.gradle.git.CommitWalk;
+import io.papermc.fill.gradle.http.Deadline;
+import io.papermc.fill.gradle.http.RetryPolicy;
+import io.papermc.fill.gradle.http.RetryingHttpClient;
+import io.papermc.fill.gradle.journal.PublishJournal;
+import io.papermc.fill.gradle.report.PublishReport;
+import io.papermc.fill.gradle.service.ConcurrencyLimit;
+import io.papermc.fill.gradle.service.FillService;
+import io.papermc.fill.gradle.service.UploadBatch;
+import io.papermc.fill.gradle.spool.Spool;
+import io.papermc.fill.model.BuildChannel;
 import io.papermc.fill.model.Checksums;
 import io.papermc.fill.model.Commit;
 import io.papermc.fill.model.Download;
 import io.papermc.fill.model.request.PublishRequest;
+import io.papermc.fill.model.request.UploadExistsRequest;
+import io.papermc.fill.model.response.UploadExistsResponse;
 import io.papermc.fill.model.response.v3.BuildResponse;
 import io.papermc.fill.model.response.v3.VersionResponse;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.format.DateTimeParseException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import javax.inject.Inject;
 import io.papermc.fill.model.response.v3.VersionsResponse;
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.lib.Constants;
-import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevWalk;
+import org.gradle.api.Action;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.GradleException;
-import org.gradle.api.file.ProjectLayout;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.api.services.ServiceReference;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.api.tasks.UntrackedTask;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
 import org.jetbrains.annotations.VisibleForTesting;
 import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
 
 @NullMarked
 @UntrackedTask(because = "PublishToFillTask should always run when requested")
-public abstract class PublishToFillTask extends DefaultTask implements AutoCloseable {
+public abstract class PublishToFillTask extends DefaultTask {
   public static final String NAME = "publishToFill";
+  public static final String STAGE_NAME = "stageToFill";
+  public static final String PROGRESS_LOGGERS = "fill.progressLoggers";
   private static final String USER_AGENT = "Fill (Gradle Plugin)";
-  private final HttpClient httpClient = HttpClient.newBuilder()
-    .build();
+  private final List<DownloadSpec> downloads = new ArrayList<>();
 
   public PublishToFillTask() {
     this.setGroup("fill");
     this.setDescription("Publish to Fill");
   }
 
+  @Input
+  public abstract Property<String> getApiUrl();
+
+  @Input
+  @Optional
+  public abstract Property<String> getApiToken();
+
+  @Input
+  public abstract Property<String> getProjectId();
+
+  @Input
+  public abstract Property<String> getVersionFamily();
+
+  @Input
+  public abstract Property<String> getVersion();
+
+  @Input
+  public abstract Property<Integer> getBuildId();
+
+  @Input
+  public abstract Property<BuildChannel> getBuildChannel();
+
+  /**
+   * The build timestamp in {@link java.time.format.DateTimeFormatter#ISO_INSTANT} format.
+   *
+   * @return the build timestamp, the current time when unset
+   */
+  @Input
+  @Optional
+  public abstract Property<String> getBuildTimestamp();
+
+  /**
+   * The downloads of the build, with their file names already resolved.
+   *
+   * @return the downloads
+   */
   @Nested
-  public abstract Property<FillExtension> getExtension();
+  public List<DownloadSpec> getDownloads() {
+    return this.downloads;
+  }
 
-  @Inject
-  public abstract ProjectLayout getProjectLayout();
+  @Input
+  public abstract Property<Integer> getMaxCommits();
+
+  @Internal
+  public abstract Property<Integer> getUploadConcurrency();
+
+  @Internal
+  public abstract Property<Boolean> getAdaptiveUploadConcurrency();
+
+  @Internal
+  public abstract Property<Long> getUploadChunkSize();
+
+  @Internal
+  public abstract Property<Boolean> getDeduplicateUploads();
+
+  /**
+   * The checksums published in addition to sha256.
+   *
+   * @return the checksum algorithms
+   */
+  @Input
+  public abstract SetProperty<ChecksumAlgorithm> getChecksumAlgorithms();
+
+  /**
+   * The segment size of the tree checksum published with every download, if any.
+   *
+   * @return the segment size
+   */
+  @Input
+  @Optional
+  public abstract Property<Long> getTreeChecksumSegmentSize();
+
+  @Internal
+  public abstract Property<Duration> getRequestTimeout();
+
+  @Internal
+  public abstract Property<Duration> getUploadStallTimeout();
+
+  /**
+   * Whether upload progress is shown through Gradle's internal progress loggers, or absent to use them on the
+   * Gradle versions the plugin is tested with.
+   *
+   * @return whether to use progress loggers
+   */
+  @Internal
+  public abstract Property<Boolean> getProgressLoggers();
+
+  /**
+   * How long the whole task may take, bounding the timeout and retries of every request it sends.
+   *
+   * @return the timeout
+   */
+  @Internal
+  public abstract Property<Duration> getPublishTimeout();
+
+  @Internal
+  public abstract Property<Integer> getBuildsPageSize();
+
+  @Internal
+  public abstract Property<RetryPolicy> getRetryPolicy();
+
+  /**
+   * Whether to stage the publish in the {@link #getSpoolDirectory() spool} instead of sending it to the api.
+   *
+   * <p>A staged publish is fully computed, but its downloads are only uploaded and the build only published
+   * by {@link FlushFillSpoolTask}.</p>
+   *
+   * @return whether to stage the publish
+   */
+  @Internal
+  public abstract Property<Boolean> getStage();
+
+  /**
+   * The directory staged publishes are written to.
+   *
+   * @return the spool directory
+   */
+  @Internal
+  public abstract DirectoryProperty getSpoolDirectory();
+
+  /**
+   * The directory of the git repository commits are gathered from.
+   *
+   * @return the repository directory
+   */
+  @Internal
+  public abstract DirectoryProperty getRepositoryDirectory();
 
-  private void withGit(final Consumer<Git> consumer) {
-    final File settingsDir = this.getProjectLayout().getSettingsDirectory().getAsFile();
-    try (final Git git = Git.open(settingsDir)) {
-      consumer.accept(git);
+  @Inject
+  public abstract WorkerExecutor getWorkerExecutor();
+
+  @ServiceReference(FillService.NAME)
+  public abstract Property<FillService> getService();
+
+  /**
+   * The file checksums of downloads are cached in, so unchanged files are not hashed again.
+   *
+   * @return the checksum cache file
+   */
+  @Internal
+  public abstract RegularFileProperty getChecksumCacheFile();
+
+  /**
+   * The directory the progress of the publish is journaled to, so a failed publish resumes its upload
+   * session when run again.
+   *
+   * @return the journal directory
+   */
+  @Internal
+  public abstract DirectoryProperty getJournalDirectory();
+
+  /**
+   * The file a report of the timings of the publish is written to.
+   *
+   * @return the report file
+   */
+  @Internal
+  public abstract RegularFileProperty getReportFile();
+
+  private void withGit(final PublishReport report, final Consumer<Git> consumer) {
+    final File repositoryDir = this.getRepositoryDirectory().get().getAsFile();
+    final Git opened;
+    try (final PublishReport.Timer ignored = report.time(PublishReport.GIT_OPEN)) {
+      opened = Git.open(repositoryDir);
     } catch (final IOException e) {
       throw new GradleException("Failed to open git repository", e);
     }
+    try (final Git git = opened) {
+      consumer.accept(git);
+    }
   }
 
   @TaskAction
   public void run() {
-    this.withGit(this::runWithGit);
+    final Deadline deadline = Deadline.after(this.getPublishTimeout().getOrNull());
+    final PublishReport report = new PublishReport();
+    final Map<String, Integer> retries = new TreeMap<>();
+    final ConcurrencyLimit limit = uploadLimit(this.getUploadConcurrency().get(), this.getAdaptiveUploadConcurrency().get());
+    PublishReport.Outcome outcome = PublishReport.Outcome.FAILED;
+    try {
+      this.withGit(report, git -> this.runWithGit(git, report, retries, deadline, limit));
+      outcome = this.getStage().get() ? PublishReport.Outcome.STAGED : PublishReport.Outcome.PUBLISHED;
+    } finally {
+      report.concurrency(limit.decisions());
+      this.writeReport(report.finish(outcome, retries));
+    }
+  }
+
+  private void writeReport(final PublishReport.Contents contents) {
+    this.getLogger().lifecycle(PublishReport.summary(contents));
+    final File file = this.getReportFile().get().getAsFile();
+    try {
+      PublishReport.write(MapperHolder.MAPPER, file.toPath(), contents);
+    } catch (final IOException e) {
+      this.getLogger().warn("Failed to write publish report to {}", file, e);
+    }
+  }
+
+  private void runWithGit(final Git git, final PublishReport report, final Map<String, Integer> retries, final Deadline deadline, final ConcurrencyLimit limit) {
+    final RetryingHttpClient client = new RetryingHttpClient(this.getService().get().client(), this.getRetryPolicy().get(), this.getLogger(), deadline);
+    final ChecksumCache checksums = ChecksumCache.load(this.getChecksumCacheFile().get().getAsFile().toPath());
+    try {
+      this.publish(client, checksums, git, report, retries, limit);
+    } finally {
+      client.retries().forEach((endpoint, count) -> retries.merge(endpoint, count, Integer::sum));
+      if (!retries.isEmpty()) {
+        this.getLogger().warn("Retried requests to the API: {}", retries);
+      }
+      try {
+        checksums.save();
+      } catch (final IOException e) {
+        this.getLogger().warn("Failed to save checksum cache", e);
+      }
+    }
   }
 
-  private void runWithGit(final Git git) {
-    final FillExtension extension = this.getExtension().get();
+  private void publish(final RetryingHttpClient client, final ChecksumCache checksums, final Git git, final PublishReport report, final Map<String, Integer> retries, final ConcurrencyLimit limit) {
 
-    final String project = extension.getProject().get();
-    final String familyId = extension.getVersionFamily().get();
-    final String versionId = extension.getVersion().get();
-    final FillExtension.Build build = extension.getBuild();
-    final int buildId = build.getId().get();
-    final String timeString = this.getExtension().get().getBuildTimestamp().getOrNull();
+    final String project = this.getProjectId().get();
+    final String familyId = this.getVersionFamily().get();
+    final String versionId = this.getVersion().get();
+    final int buildId = this.getBuildId().get();
+    final String timeString = this.getBuildTimestamp().getOrNull();
     final Instant time;
     if (timeString != null) {
       try {
@@ -113,53 +346,77 @@ public abstract class PublishToFillTask extends DefaultTask implements AutoClose
       time = Instant.now();
     }
 
-    final List<Commit> commits = this.gatherCommits(git, extension);
-
-    final UUID id = UUID.randomUUID();
-    final List<HttpRequest> requests = new ArrayList<>();
+    final boolean stage = this.getStage().get();
+    // only reading metadata does not need a token, so a build can be staged without one
+    if (!stage && !this.getApiToken().isPresent()) {
+      throw new GradleException("API token is not present");
+    }
+    final Spool spool = stage ? new Spool(this.getSpoolDirectory().get().getAsFile().toPath()) : null;
+    final PublishJournal journal = new PublishJournal(this.getJournalDirectory().get().getAsFile().toPath());
+    final PublishJournal.Session session;
+    if (stage) {
+      // a staged build keeps its session in the spool
+      session = new PublishJournal.Session(UUID.randomUUID(), false);
+    } else {
+      try {
+        session = journal.open(this.getApiUrl().get(), project, versionId, buildId);
+      } catch (final IOException e) {
+        throw new GradleException("Failed to open publish journal " + this.getJournalDirectory().get().getAsFile(), e);
+      }
+      if (session.resumed()) {
+        this.getLogger().lifecycle("Resuming publish session {} of build {} of {} {}", session.id(), buildId, project, versionId);
+      }
+    }
+    final UUID id = session.id();
     try {
-      final Map<String, Download> downloads = new HashMap<>();
-
-      for (final FillExtension.Download download : build.getDownloads()) {
-        final String key = download.getName();
-        final String name = download.getNameResolver().get().name(project, familyId, versionId, buildId);
+      final List<Upload> uploads = new ArrayList<>();
+      for (final DownloadSpec download : this.downloads) {
+        final String key = download.getKey().get();
+        final String name = download.getFileName().get();
         final Path path = download.getFile().get().getAsFile().toPath();
-
-        final byte[] content = Files.readAllBytes(path);
-        final String sha256 = Hashing.sha256().hashBytes(content).toString();
-        final int size = (int) Files.size(path);
-        downloads.put(key, new Download(name, new Checksums(sha256), size));
-
-        final HttpRequest.Builder builder = HttpRequest.newBuilder();
-        builder.header("User-Agent", USER_AGENT);
-        builder.header("Content-Type", "multipart/form-data; boundary=boundary");
-        builder.uri(URI.create(extension.getApiUrl().get() + "/upload"));
-
-        final List<byte[]> requestParts = new ArrayList<>();
-        requestParts.add(("--boundary\r\nContent-Disposition: form-data; name=\"request\"\r\nContent-Type: application/json\r\n\r\n{\"id\":\"" + id + "\"}\r\n").getBytes(StandardCharsets.UTF_8));
-        requestParts.add(("--boundary\r\nContent-Disposition: form-data; name=\"file\"; filename=\"" + name + "\"\r\n\r\n").getBytes(StandardCharsets.UTF_8));
-        requestParts.add(content);
-        requestParts.add(("\r\n--boundary").getBytes(StandardCharsets.UTF_8));
-
-        builder.POST(HttpRequest.BodyPublishers.ofByteArrays(requestParts));
-
-        if (extension.getApiToken().isPresent()) {
-          builder.header("Authorization", extension.getApiToken().get());
-        } else {
-          throw new GradleException("API token is not present");
-        }
-
-        requests.add(builder.build());
+        uploads.add(new Upload(key, name, path, Files.size(path)));
       }
 
-      for (final HttpRequest request : requests) {
+      // gathering commits and uploading do not depend on each other until the publish request is built
+      final List<Commit> commits;
+      final Map<String, Download> downloads = new HashMap<>();
+      // a failure of either fails the publish, and a failure of the gathering cancels the uploads
+      final Failures failures = new Failures();
+      try (final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+        final Future<List<Commit>> gathering = executor.submit(() -> {
+          try {
+            return this.gatherCommits(client, git, report, spool);
+          } catch (final RuntimeException e) {
+            failures.add(e);
+            throw e;
+          }
+        });
         try {
-          final HttpResponse<String> response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-          if (response.statusCode() != 200) {
-            throw new GradleException("Failed to post data to the API: " + response.statusCode() + ": " + response.body());
+          if (stage) {
+            for (final Upload upload : uploads) {
+              downloads.put(upload.key(), new Download(upload.name(), this.checksum(checksums, upload, report), upload.size()));
+            }
+            uploads.clear();
+          } else {
+            if (session.resumed()) {
+              downloads.putAll(this.findAcknowledgedUploads(journal, checksums, uploads, report));
+              uploads.removeIf(upload -> downloads.containsKey(upload.key()));
+            }
+            if (this.getDeduplicateUploads().get() && !uploads.isEmpty()) {
+              downloads.putAll(this.findExistingUploads(client, checksums, uploads, report));
+              uploads.removeIf(upload -> downloads.containsKey(upload.key()));
+            }
           }
-        } catch (final Exception e) {
-          throw new GradleException("Failed to post data to the API", e);
+          if (!uploads.isEmpty()) {
+            checkDeadline(client.deadline(), "uploading");
+            downloads.putAll(this.sendUploads(checksums, journal, id, uploads, report, retries, client.deadline(), limit, failures));
+          }
+          commits = join(gathering);
+        } catch (final RuntimeException e) {
+          // jgit does not survive being interrupted, so the gathering is left to finish on its own
+          throw failures.fail(e);
+        } catch (final IOException e) {
+          throw failures.fail(new GradleException("Failed to read file", e));
         }
       }
 
@@ -170,31 +427,53 @@ public abstract class PublishToFillTask extends DefaultTask implements AutoClose
         versionId,
         buildId,
         time,
-        build.getChannel().get(),
+        this.getBuildChannel().get(),
         commits.reversed(),
         downloads
       );
 
-      try {
-        final HttpRequest.Builder builder = HttpRequest.newBuilder()
-          .uri(URI.create(extension.getApiUrl().get() + "/publish"))
-          .header("Content-Type", "application/json")
-          .header("User-Agent", USER_AGENT);
-        builder.POST(HttpRequest.BodyPublishers.ofString(MapperHolder.MAPPER.writeValueAsString(request)));
-        if (extension.getApiToken().isPresent()) {
-          builder.headers("Authorization", extension.getApiToken().get());
-        } else {
-          throw new GradleException("Api token is not present.");
+      if (spool != null) {
+        final Map<String, Path> files = new HashMap<>();
+        for (final DownloadSpec download : this.downloads) {
+          files.put(download.getKey().get(), download.getFile().get().getAsFile().toPath());
+        }
+        final Spool.Entry entry;
+        try {
+          entry = spool.stage(request, files);
+        } catch (final IOException e) {
+          throw new GradleException("Failed to stage build in " + this.getSpoolDirectory().get().getAsFile(), e);
         }
+        this.getLogger().lifecycle("Staged build {} of {} {} as {}, run {} to publish it", buildId, project, versionId, entry.name(), FlushFillSpoolTask.NAME);
+        return;
+      }
 
-        final HttpRequest post = builder.build();
-        final HttpResponse<String> response = this.httpClient.send(post, HttpResponse.BodyHandlers.ofString());
-        if (response.statusCode() != 201) {
+      checkDeadline(client.deadline(), "publishing");
+      try {
+        final boolean sent = journal.publishing();
+        // the marker stays if no answer comes back, as the request may still have published the build
+        journal.markPublishing();
+        final HttpResponse<String> response;
+        try (final PublishReport.Timer ignored = report.time(PublishReport.PUBLISH)) {
+          response = sendPublish(client, this.getApiUrl().get(), this.getApiToken().get(), this.getRequestTimeout().getOrNull(), request);
+        }
+        if (response.statusCode() == 409 && sent) {
+          // published by an earlier attempt that got no answer
+          this.getLogger().lifecycle("Build {} of {} {} was already published", buildId, project, versionId);
+        } else if (response.statusCode() != 201) {
+          if (!sent) {
+            // the api answered, so this build was not published and a later conflict is not its own
+            journal.clearPublishing();
+          }
           throw new GradleException("Failed to post data to the API: " + response.statusCode() + ": " + response.body());
         }
       } catch (final Exception e) {
         throw new GradleException("Failed to post data to the API: " + e.getMessage(), e);
       }
+      try {
+        journal.delete();
+      } catch (final IOException e) {
+        this.getLogger().warn("Failed to delete publish journal {}", this.getJournalDirectory().get().getAsFile(), e);
+      }
     } catch (final JsonProcessingException e) {
       throw new GradleException("Failed to serialize json", e);
     } catch (final IOException e) {
@@ -202,125 +481,364 @@ public abstract class PublishToFillTask extends DefaultTask implements AutoClose
     }
   }
 
-  private List<Commit> gatherCommits(Git git, FillExtension extension) {
-    final List<Commit> commits = new ArrayList<>();
-    try (final RevWalk revWalk = new RevWalk(git.getRepository())) {
-      final RevCommit currentCommit = revWalk.parseCommit(git.getRepository().exactRef(Constants.HEAD).getObjectId());
-      revWalk.markStart(currentCommit);
-
-      final List<BuildResponse> builds = this.fetchPreviousBuilds(extension);
-      if (!builds.isEmpty()) {
-        // not every build might have commits, we have to find the last one that did have some
-        BuildResponse lastBuildWithCommits = null;
-        for (final BuildResponse build : builds) {
-          if (!build.commits().isEmpty()) {
-            lastBuildWithCommits = build;
-            break;
-          }
-        }
+  private Map<String, Download> findAcknowledgedUploads(final PublishJournal journal, final ChecksumCache cache, final List<Upload> uploads, final PublishReport report) throws IOException {
+    final Map<String, Download> downloads = new HashMap<>();
+    for (final Upload upload : uploads) {
+      final UploadAction.Result result = UploadAction.Result.read(journal.uploadResult(upload.key()));
+      if (result == null) {
+        continue;
+      }
+      final Checksums checksums = this.checksum(cache, upload, report);
+      if (!result.checksums().sha256().equals(checksums.sha256()) || result.size() != upload.size()) {
+        // the file changed since it was uploaded
+        continue;
+      }
+      this.getLogger().lifecycle("Skipping upload of {}, the API acknowledged it in an earlier attempt", upload.name());
+      downloads.put(upload.key(), new Download(upload.name(), checksums, upload.size()));
+    }
+    return downloads;
+  }
+
+  private Map<String, Download> findExistingUploads(final RetryingHttpClient client, final ChecksumCache cache, final List<Upload> uploads, final PublishReport report) throws IOException {
+    final Map<Upload, Checksums> checksums = new HashMap<>();
+    for (final Upload upload : uploads) {
+      checksums.put(upload, this.checksum(cache, upload, report));
+    }
+
+    final HttpRequest request = this.newRequest(this.getApiUrl().get() + "/upload/exists")
+      .header("Content-Type", "application/json")
+      .header("Authorization", this.getApiToken().get())
+      .POST(HttpRequest.BodyPublishers.ofString(MapperHolder.MAPPER.writeValueAsString(new UploadExistsRequest(checksums.values().stream().map(Checksums::sha256).distinct().toList()))))
+      .build();
+    final HttpResponse<String> response;
+    try (final PublishReport.Timer ignored = report.time(PublishReport.UPLOAD_EXISTS)) {
+      response = client.send("upload/exists", RetryingHttpClient.Idempotency.IDEMPOTENT, request, HttpResponse.BodyHandlers.ofString());
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GradleException("Interrupted while checking for existing uploads", e);
+    }
+    if (response.statusCode() == 404 || response.statusCode() == 405) {
+      this.getLogger().info("The API does not support checking for existing uploads, uploading everything");
+      return Map.of();
+    } else if (response.statusCode() != 200) {
+      throw new GradleException("Failed to check for existing uploads: " + response.statusCode() + ": " + response.body());
+    }
+
+    final Set<String> existing = new HashSet<>(MapperHolder.MAPPER.readValue(response.body(), UploadExistsResponse.class).existing());
+    final Map<String, Download> downloads = new HashMap<>();
+    checksums.forEach((upload, checksum) -> {
+      if (existing.contains(checksum.sha256())) {
+        this.getLogger().lifecycle("Skipping upload of {}, the API already has it", upload.name());
+        downloads.put(upload.key(), new Download(upload.name(), checksum, upload.size()));
+      }
+    });
+    return downloads;
+  }
+
+  private Checksums checksum(final ChecksumCache cache, final Upload upload, final PublishReport report) throws IOException {
+    final ChecksumFunction function = new ChecksumFunction(this.getChecksumAlgorithms().get(), this.getTreeChecksumSegmentSize().getOrNull());
+    ChecksumCache.Checksum checksum = cache.get(upload.path());
+    if (checksum == null || !function.covers(checksum.checksums())) {
+      final BasicFileAttributes attributes = ChecksumCache.attributes(upload.path());
+      final long start = System.nanoTime();
+      final HashCode hash = com.google.common.io.Files.asByteSource(upload.path().toFile()).hash(function.function());
+      checksum = new ChecksumCache.Checksum(function.checksums(hash, function.tree(upload.path())), upload.size());
+      final long hashNanos = System.nanoTime() - start;
+      report.phase(PublishReport.HASH, hashNanos);
+      report.artifact(PublishReport.Artifact.hashed(upload.key(), upload.name(), upload.size(), hashNanos));
+      cache.put(upload.path(), attributes, checksum);
+    }
+    return checksum.checksums();
+  }
 
-        if (lastBuildWithCommits != null) {
-          final Commit lastCommit = lastBuildWithCommits.commits().getFirst();
-          final RevCommit lastBuildCommit = revWalk.parseCommit(git.getRepository().resolve(lastCommit.sha()));
-          revWalk.markUninteresting(lastBuildCommit);
+  private Map<String, Download> sendUploads(final ChecksumCache checksums, final PublishJournal journal, final UUID id, final List<Upload> uploads, final PublishReport report, final Map<String, Integer> retries, final Deadline deadline, final ConcurrencyLimit limit, final Failures failures) throws IOException {
+    final Map<Upload, Path> submitted = new LinkedHashMap<>();
+    final Map<Upload, BasicFileAttributes> attributes = new HashMap<>();
+    final List<UploadBatch.Upload> batch = new ArrayList<>();
+    // largest artifacts go first so a big upload does not end up running on its own at the end
+    final List<Upload> sorted = uploads.stream()
+      .sorted(Comparator.comparingLong(Upload::size).reversed())
+      .toList();
+    for (final Upload upload : sorted) {
+      // results are the journal's record of acknowledged uploads
+      final Path result = journal.uploadResult(upload.key());
+      Files.deleteIfExists(result);
+      submitted.put(upload, result);
+      attributes.put(upload, ChecksumCache.attributes(upload.path()));
+      batch.add(new UploadBatch.Upload(upload.name(), upload.path(), result));
+    }
+    // a lambda, so a change of the internal api fails inside the display
+    final ProgressDisplay display = ProgressDisplay.create(() -> this.getServices(), this.getLogger(), this.getProgressLoggers().getOrNull());
+    try (final PublishReport.Timer ignored = report.time(PublishReport.UPLOADS)) {
+      runUploads(this.getWorkerExecutor(), this.getService(), limit, batch, failures, display, parameters -> {
+        parameters.getOwner().set(this.getPath());
+        parameters.getApiUrl().set(this.getApiUrl());
+        parameters.getApiToken().set(this.getApiToken());
+        parameters.getSessionId().set(id.toString());
+        parameters.getChecksumAlgorithms().set(this.getChecksumAlgorithms());
+        parameters.getTreeSegmentSize().set(this.getTreeChecksumSegmentSize());
+        parameters.getChunkSize().set(this.getUploadChunkSize());
+        parameters.getRequestTimeout().set(this.getRequestTimeout());
+        parameters.getStallTimeout().set(this.getUploadStallTimeout());
+        parameters.getDeadline().set(deadline);
+        parameters.getRetryPolicy().set(this.getRetryPolicy());
+      });
+    }
+
+    final Map<String, Download> downloads = new HashMap<>();
+    for (final Map.Entry<Upload, Path> entry : submitted.entrySet()) {
+      final Upload upload = entry.getKey();
+      final UploadAction.Result result = MapperHolder.MAPPER.readValue(entry.getValue().toFile(), UploadAction.Result.class);
+      checksums.put(upload.path(), attributes.get(upload), new ChecksumCache.Checksum(result.checksums(), result.size()));
+      downloads.put(upload.key(), new Download(upload.name(), result.checksums(), result.size()));
+      result.retries().forEach((endpoint, count) -> retries.merge(endpoint, count, Integer::sum));
+      report.phase(PublishReport.HASH, result.hashNanos());
+      report.artifact(PublishReport.Artifact.uploaded(upload.key(), upload.name(), result.size(), result.hashNanos(), result.uploadNanos()));
+    }
+    return downloads;
+  }
+
+  static ConcurrencyLimit uploadLimit(final int concurrency, final boolean adaptive) {
+    return adaptive ? ConcurrencyLimit.adaptive(concurrency) : ConcurrencyLimit.fixed(concurrency);
+  }
+
+  /**
+   * Runs a batch of uploads, failing with the first failure once every upload stopped.
+   *
+   * <p>At most as many work actions are submitted as uploads may run at the same time, so waiting uploads
+   * do not hold on to a worker. A failure recorded in {@code failures} cancels the uploads.</p>
+   */
+  static void runUploads(final WorkerExecutor executor, final Provider<FillService> service, final ConcurrencyLimit limit, final List<UploadBatch.Upload> uploads, final Failures failures, final ProgressDisplay display, final Action<? super UploadAction.Parameters> configure) {
+    final WorkQueue queue = executor.noIsolation();
+    try (final UploadBatch batch = service.get().openUploadBatch(limit, failures::add); final ProgressDisplay.Showing ignored = display.show(batch)) {
+      failures.onFailure(batch::cancel);
+      uploads.forEach(batch::add);
+      // permits are taken before the work is submitted, as the task holds a worker lease until it awaits the
+      // queue, and a worker waiting for a permit would hold one as well
+      int permits;
+      while ((permits = batch.reserve()) > 0) {
+        for (int i = 0; i < permits; i++) {
+          queue.submit(UploadAction.class, parameters -> {
+            parameters.getService().set(service);
+            parameters.getBatch().set(batch.id().toString());
+            configure.execute(parameters);
+          });
+        }
+        try {
+          queue.await();
+        } catch (final RuntimeException e) {
+          failures.add(e);
         }
       }
+    }
+    failures.rethrow();
+  }
+
+  static void checkDeadline(final Deadline deadline, final String phase) {
+    if (deadline.expired()) {
+      throw new GradleException("The publish timeout passed before " + phase);
+    }
+  }
+
+  private static <T> T join(final Future<T> future) {
+    try {
+      return future.get();
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof final GradleException cause) {
+        throw cause;
+      }
+      throw new GradleException("Failed to publish", e.getCause());
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GradleException("Interrupted while publishing", e);
+    }
+  }
+
+  static HttpResponse<String> sendPublish(final RetryingHttpClient client, final String apiUrl, final String token, final @Nullable Duration timeout, final PublishRequest request) throws IOException, InterruptedException {
+    final HttpRequest post = newRequest(apiUrl + "/publish", timeout)
+      .header("Content-Type", "application/json")
+      .header("Authorization", token)
+      .POST(HttpRequest.BodyPublishers.ofString(MapperHolder.MAPPER.writeValueAsString(request)))
+      .build();
+    return client.send("publish", RetryingHttpClient.Idempotency.NON_IDEMPOTENT, post, HttpResponse.BodyHandlers.ofString());
+  }
+
+  private HttpRequest.Builder newRequest(final String url) {
+    return newRequest(url, this.getRequestTimeout().getOrNull());
+  }
+
+  static HttpRequest.Builder newRequest(final String url, final @Nullable Duration timeout) {
+    final HttpRequest.Builder builder = HttpRequest.newBuilder()
+      .uri(URI.create(url))
+      .header("User-Agent", USER_AGENT);
+    if (timeout != null) {
+      builder.timeout(timeout);
+    }
+    return builder;
+  }
 
-      for (final RevCommit commit : revWalk) {
-        commits.add(new Commit(
-          commit.getName(),
-          commit.getAuthorIdent().getWhenAsInstant(),
-          commit.getFullMessage()
-        ));
+  private List<Commit> gatherCommits(final RetryingHttpClient client, final Git git, final PublishReport report, final @Nullable Spool spool) {
+    try {
+      final String lastCommit = this.lastPublishedCommit(client, report, spool);
+      try (final PublishReport.Timer ignored = report.time(PublishReport.GIT_WALK)) {
+        return CommitWalk.walk(git.getRepository(), lastCommit, this.getMaxCommits().get(), this.getLogger());
       }
     } catch (final IOException e) {
       throw new GradleException("Failed to get commit data", e);
     }
-    return commits;
   }
 
-  private List<BuildResponse> fetchPreviousBuilds(final FillExtension extension) {
-    final String currentVersion = extension.getVersion().get();
-    final VersionsResponse versions = this.getVersions(extension);
+  private @Nullable String lastPublishedCommit(final RetryingHttpClient client, final PublishReport report, final @Nullable Spool spool) throws IOException {
+    if (spool != null) {
+      // builds waiting in the spool are published before this one, so it continues from them
+      final String staged = spool.lastCommit(this.getProjectId().get());
+      if (staged != null) {
+        return staged;
+      }
+    }
+    final BuildResponse lastBuildWithCommits = this.fetchPreviousBuild(client, report);
+    return lastBuildWithCommits != null ? lastBuildWithCommits.commits().getFirst().sha() : null;
+  }
+
+  private @Nullable BuildResponse fetchPreviousBuild(final RetryingHttpClient client, final PublishReport report) {
+    final String currentVersion = this.getVersion().get();
+    final VersionsResponse versions = this.getVersions(client, report);
 
     // Check if the current version already has builds
     for (final VersionResponse version : versions.versions()) {
       if (version.version().id().equals(currentVersion) && !version.builds().isEmpty()) {
-        return this.fetchCurrentVersionBuilds(extension, currentVersion);
+        return this.fetchCurrentVersionBuild(client, version, report);
       }
     }
 
     // For new versions without builds, fall back to finding the last version with builds
-    return this.fetchLastVersionBuilds(extension, versions);
+    return this.fetchLastVersionBuild(client, versions, report);
   }
 
-  private List<BuildResponse> fetchCurrentVersionBuilds(final FillExtension extension, final String version) {
-    return this.getBuilds(extension, version);
+  private @Nullable BuildResponse fetchCurrentVersionBuild(final RetryingHttpClient client, final VersionResponse version, final PublishReport report) {
+    return this.getLastBuildWithCommits(client, version, report);
   }
 
-  private List<BuildResponse> fetchLastVersionBuilds(final FillExtension extension, final VersionsResponse versions) {
+  private @Nullable BuildResponse fetchLastVersionBuild(final RetryingHttpClient client, final VersionsResponse versions, final PublishReport report) {
     for (final VersionResponse version : versions.versions()) {
       if (!version.builds().isEmpty()) {
-        return this.getBuilds(extension, version.version().id());
+        return this.getLastBuildWithCommits(client, version, report);
       }
     }
-    return List.of();
+    return null;
   }
 
-  private VersionsResponse getVersions(final FillExtension extension) {
+  private VersionsResponse getVersions(final RetryingHttpClient client, final PublishReport report) {
     final String url = String.format(
       "%s/v3/projects/%s/versions",
-      extension.getApiUrl().get(),
-      extension.getProject().get()
+      this.getApiUrl().get(),
+      this.getProjectId().get()
     );
-    try {
-      final HttpRequest request = HttpRequest.newBuilder()
-        .uri(URI.create(url))
-        .header("User-Agent", USER_AGENT)
-        .build();
-      final HttpResponse<String> response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-      final int statusCode = response.statusCode();
-      if (statusCode == 200) {
-        final String json = response.body();
-        return MapperHolder.MAPPER.readValue(json, VersionsResponse.class);
-      } else {
-        throw new IOException("Unexpected response status: " + statusCode);
-      }
+    try (final PublishReport.Timer ignored = report.time(PublishReport.METADATA_VERSIONS)) {
+      final HttpRequest request = this.newRequest(url).build();
+      return this.getService().get().metadata().fetch(client, "versions", request, new TypeReference<VersionsResponse>() {});
     } catch (final IOException | InterruptedException e) {
-      throw new GradleException("Failed to fetch latest build data for version " + extension.getVersion().get() + ": " + e.getMessage(), e);
+      throw new GradleException("Failed to fetch latest build data for version " + this.getVersion().get() + ": " + e.getMessage(), e);
     }
   }
 
-  private List<BuildResponse> getBuilds(final FillExtension extension, final String version) {
+  private @Nullable BuildResponse getLastBuildWithCommits(final RetryingHttpClient client, final VersionResponse version, final PublishReport report) {
     final String url = String.format(
       "%s/v3/projects/%s/versions/%s/builds",
-      extension.getApiUrl().get(),
-      extension.getProject().get(),
-      version
+      this.getApiUrl().get(),
+      this.getProjectId().get(),
+      version.version().id()
     );
-    try {
-      final HttpRequest request = HttpRequest.newBuilder()
-        .uri(URI.create(url))
-        .header("User-Agent", USER_AGENT)
-        .build();
-      final HttpResponse<String> response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-      final int statusCode = response.statusCode();
-      if (statusCode == 200) {
-        final String json = response.body();
-        @SuppressWarnings("Convert2Diamond")
-        final TypeReference<List<BuildResponse>> type = new TypeReference<List<BuildResponse>>() {};
-        return MapperHolder.MAPPER.readValue(json, type);
-      } else {
-        throw new IOException("Unexpected response status: " + statusCode);
+    final Integer pageSize = this.getBuildsPageSize().getOrNull();
+    try (final PublishReport.Timer ignored = report.time(PublishReport.METADATA_BUILDS)) {
+      if (pageSize == null) {
+        return this.getBuildsPage(client, url).build();
       }
+      // the version lists every build, so there are no more pages than that
+      @Nullable Integer previous = null;
+      for (int offset = 0; offset < version.builds().size(); offset += pageSize) {
+        final BuildsPage page = this.getBuildsPage(client, url + "?limit=" + pageSize + "&offset=" + offset);
+        // a page larger than requested means the server ignored the paging parameters and sent everything,
+        // a page starting with the same build as the previous one means it ignored the offset
+        if (page.build() != null || page.read() != pageSize || (previous != null && previous.equals(page.first()))) {
+          return page.build();
+        }
+        previous = page.first();
+      }
+      return null;
     } catch (final IOException | InterruptedException e) {
-      throw new GradleException("Failed to fetch latest build data for version " + extension.getVersion().get() + ": " + e.getMessage(), e);
+      throw new GradleException("Failed to fetch latest build data for version " + this.getVersion().get() + ": " + e.getMessage(), e);
     }
   }
 
-  @Override
-  public void close() {
-    this.httpClient.close();
+  private BuildsPage getBuildsPage(final RetryingHttpClient client, final String url) throws IOException, InterruptedException {
+    final HttpRequest request = this.newRequest(url).build();
+    final JavaType type = MapperHolder.MAPPER.constructType(BuildsPage.class);
+    return this.getService().get().metadata().fetch(client, "builds", "last-build-with-commits", request, type, PublishToFillTask::readBuildsPage);
+  }
+
+  private static BuildsPage readBuildsPage(final InputStream body) throws IOException {
+    try (final JsonParser parser = MapperHolder.MAPPER.createParser(body)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new IOException("Expected an array of builds");
+      }
+      @Nullable Integer first = null;
+      int read = 0;
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        final BuildResponse build = MapperHolder.MAPPER.readValue(parser, BuildResponse.class);
+        if (read++ == 0) {
+          first = build.id();
+        }
+        // builds are listed newest first, and not every build might have commits,
+        // so the first one that has some is the last build with commits - the rest is not read
+        if (!build.commits().isEmpty()) {
+          return new BuildsPage(build, read, first);
+        }
+      }
+      return new BuildsPage(null, read, first);
+    }
+  }
+
+  /**
+   * A download of the build.
+   */
+  @NullMarked
+  public interface DownloadSpec {
+    /**
+     * The key the download is published under.
+     *
+     * @return the key
+     */
+    @Input
+    Property<String> getKey();
+
+    /**
+     * The file name the download is published with.
+     *
+     * @return the file name
+     */
+    @Input
+    Property<String> getFileName();
+
+    @InputFile
+    RegularFileProperty getFile();
+  }
+
+  @NullMarked
+  private record Upload(
+    String key,
+    String name,
+    Path path,
+    long size
+  ) {
+  }
+
+  @NullMarked
+  record BuildsPage(
+    @Nullable BuildResponse build,
+    int read,
+    @Nullable Integer first
+  ) {
   }
 
   @VisibleForTesting
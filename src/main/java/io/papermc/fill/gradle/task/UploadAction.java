@@ -0,0 +1,413 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.task;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import io.papermc.fill.gradle.checksum.ChecksumAlgorithm;
+import io.papermc.fill.gradle.checksum.ChecksumFunction;
+import io.papermc.fill.gradle.http.Deadline;
+import io.papermc.fill.gradle.http.FileHasher;
+import io.papermc.fill.gradle.http.FilePublishers;
+import io.papermc.fill.gradle.http.HashingBodyPublisher;
+import io.papermc.fill.gradle.http.MultipartBody;
+import io.papermc.fill.gradle.http.RetryPolicy;
+import io.papermc.fill.gradle.http.RetryingHttpClient;
+import io.papermc.fill.gradle.http.ThrottledBodyPublisher;
+import io.papermc.fill.gradle.http.TokenBucket;
+import io.papermc.fill.gradle.service.ConcurrencyLimit;
+import io.papermc.fill.gradle.service.FillService;
+import io.papermc.fill.gradle.service.UploadBatch;
+import io.papermc.fill.model.Checksums;
+import io.papermc.fill.model.TreeChecksum;
+import io.papermc.fill.model.request.UploadRequest;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Uploads downloads of an {@link UploadBatch} to the api, hashing each while it is sent.
+ *
+ * <p>The checksums and size of an upload are written to its result file, for the task to publish.
+ * Its progress is shown while it is sent.</p>
+ */
+@NullMarked
+public abstract class UploadAction implements WorkAction<UploadAction.Parameters> {
+  private static final Logger LOGGER = Logging.getLogger(UploadAction.class);
+  private static final int CHUNK_BUFFER_SIZE = 64 * 1024;
+
+  @Override
+  public void execute() {
+    final Parameters parameters = this.getParameters();
+    final FillService service = parameters.getService().get();
+    final UploadBatch batch = service.uploadBatch(UUID.fromString(parameters.getBatch().get()));
+    // the task reserved a permit for this action before submitting it
+    try {
+      if (!batch.enter()) {
+        return;
+      }
+      try {
+        final UploadBatch.Upload upload = batch.next();
+        if (upload != null) {
+          this.execute(service, parameters, batch, upload);
+        }
+      } catch (final RuntimeException e) {
+        batch.fail(e);
+      } finally {
+        batch.exit();
+      }
+    } finally {
+      batch.release();
+    }
+  }
+
+  private void execute(final FillService service, final Parameters parameters, final UploadBatch batch, final UploadBatch.Upload upload) {
+    final Deadline deadline = parameters.getDeadline().get();
+    if (deadline.expired()) {
+      throw new GradleException("The publish timeout passed before uploading " + upload.name());
+    }
+    final Result result;
+    try {
+      result = this.upload(service, parameters, deadline, batch, upload);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GradleException("Interrupted while uploading " + upload.name(), e);
+    } catch (final IOException e) {
+      throw new GradleException("Failed to post data to the API: " + e.getMessage(), e);
+    }
+    try {
+      result.write(upload.result());
+      deleteChunks(chunks(upload.result()));
+    } catch (final IOException e) {
+      throw new GradleException("Failed to write upload result", e);
+    }
+  }
+
+  private Result upload(final FillService service, final Parameters parameters, final Deadline deadline, final UploadBatch batch, final UploadBatch.Upload upload) throws IOException, InterruptedException {
+    final ConcurrencyLimit limit = batch.limit();
+    final Path path = upload.file();
+    final long size = Files.size(path);
+    final ChecksumFunction checksums = new ChecksumFunction(parameters.getChecksumAlgorithms().get(), parameters.getTreeSegmentSize().getOrNull());
+    // the tree checksum reads the file on its own, so it is computed on other cores while the file is uploaded
+    final ForkJoinTask<Tree> tree = ForkJoinPool.commonPool().submit(() -> {
+      final long start = System.nanoTime();
+      final TreeChecksum checksum = checksums.tree(path);
+      return new Tree(checksum, System.nanoTime() - start);
+    });
+    final UploadProgress progress = UploadProgress.start(upload.name(), size, parameters.getStallTimeout().getOrNull());
+    // the task shows the progress of the uploads of its batch
+    batch.started(progress);
+    try (progress) {
+      final RetryingHttpClient client = new RetryingHttpClient(service.client(), parameters.getRetryPolicy().get(), LOGGER, deadline, (endpoint, start, response, failure) -> {
+        // the time the server takes to answer once the body is sent tells how loaded it is
+        final ConcurrencyLimit.Decision decision = response != null
+          ? limit.response(start, response.statusCode(), progress.waitedSinceSent(start))
+          : limit.failure(start, String.valueOf(failure));
+        if (decision != null) {
+          LOGGER.info("Changed upload concurrency of {} from {} to {}: {}", parameters.getOwner().get(), decision.from(), decision.to(), decision.reason());
+        }
+      });
+      final Long chunkSize = parameters.getChunkSize().getOrNull();
+      final Result result = chunkSize != null && size > chunkSize
+        ? this.uploadChunked(client, parameters, checksums, tree, progress, upload.name(), path, chunks(upload.result()), size, chunkSize)
+        : this.upload(client, parameters, checksums, tree, progress, upload.name(), path);
+      return result.withRetries(client.retries());
+    } finally {
+      batch.finished(progress);
+      tree.cancel(true);
+    }
+  }
+
+  private Result upload(final RetryingHttpClient client, final Parameters parameters, final ChecksumFunction checksums, final ForkJoinTask<Tree> tree, final UploadProgress progress, final String name, final Path path) throws IOException, InterruptedException {
+    // the checksums are computed from the same bytes that are sent to the api
+    final HashingBodyPublisher content = new HashingBodyPublisher(progress.track(throttle(parameters, HttpRequest.BodyPublishers.ofFile(path))), checksums.function());
+    final MultipartBody body = MultipartBody.create()
+      .json("request", PublishToFillTask.MapperHolder.MAPPER.writeValueAsString(new UploadRequest(UUID.fromString(parameters.getSessionId().get()))))
+      .file("file", name, content);
+    final long start = System.nanoTime();
+    final HttpResponse<String> response = client.send("upload", RetryingHttpClient.Idempotency.IDEMPOTENT, this.uploadRequest(parameters, body), HttpResponse.BodyHandlers.ofString());
+    final long uploadNanos = System.nanoTime() - start;
+    if (response.statusCode() != 200) {
+      throw new GradleException("Failed to upload " + name + ": " + response.statusCode() + ": " + response.body());
+    }
+    final Tree computed = join(tree);
+    return new Result(checksums.checksums(content.hash(), computed.checksum()), content.size(), content.hashNanos() + computed.nanos(), uploadNanos, Map.of());
+  }
+
+  private Result uploadChunked(final RetryingHttpClient client, final Parameters parameters, final ChecksumFunction checksums, final ForkJoinTask<Tree> tree, final UploadProgress progress, final String name, final Path path, final Path chunks, final long size, final long chunkSize) throws IOException, InterruptedException {
+    final UUID id = UUID.fromString(parameters.getSessionId().get());
+    final FileHasher file = new FileHasher(checksums.function());
+    final int count = Math.toIntExact((size + chunkSize - 1) / chunkSize);
+    Files.createDirectories(chunks);
+
+    // each chunk is hashed while it is sent and retried on its own, so a failure only sends that chunk again
+    long hashNanos = 0;
+    final long uploadStart = System.nanoTime();
+    for (int index = 0; index < count; index++) {
+      final long offset = index * chunkSize;
+      final long length = Math.min(chunkSize, size - offset);
+      final Path acknowledged = chunks.resolve(index + ".json");
+      final long checkStart = System.nanoTime();
+      final boolean skip = acknowledged(acknowledged, path, file, index, count, offset, length);
+      hashNanos += System.nanoTime() - checkStart;
+      if (skip) {
+        progress.completed(length);
+        continue;
+      }
+      final int chunkIndex = index;
+      // the placeholder has the length of every sha256, so the request part has a known length
+      final int requestLength = json(new UploadRequest(id, new UploadRequest.Chunk(index, count, offset, length, "0".repeat(64)))).length();
+      final HashingBodyPublisher content = new HashingBodyPublisher(progress.track(throttle(parameters, FilePublishers.ofRegion(path, offset, length))), Hashing.sha256(), file, offset);
+      // the request follows the file, so it can carry the checksum of the bytes that were sent
+      final MultipartBody body = MultipartBody.create()
+        .file("file", name, content)
+        .json("request", requestLength, () -> json(new UploadRequest(id, new UploadRequest.Chunk(chunkIndex, count, offset, length, content.hash().toString()))));
+      final HttpResponse<String> response = client.send("upload", RetryingHttpClient.Idempotency.IDEMPOTENT, this.uploadRequest(parameters, body), HttpResponse.BodyHandlers.ofString());
+      if (response.statusCode() != 200) {
+        throw new GradleException("Failed to upload chunk " + index + " of " + name + ": " + response.statusCode() + ": " + response.body());
+      }
+      hashNanos += content.hashNanos();
+      write(acknowledged, new UploadRequest.Chunk(index, count, offset, length, content.hash().toString()));
+      progress.completed(length);
+    }
+    final long uploadNanos = System.nanoTime() - uploadStart;
+    final Tree computed = join(tree);
+    return new Result(checksums.checksums(file.hash(), computed.checksum()), file.size(), hashNanos + computed.nanos(), uploadNanos, Map.of());
+  }
+
+  /**
+   * Checks whether the api acknowledged a chunk in an earlier attempt, hashing it for the whole file.
+   */
+  private static boolean acknowledged(final Path acknowledged, final Path path, final FileHasher file, final int index, final int count, final long offset, final long length) throws IOException {
+    final UploadRequest.Chunk chunk;
+    try {
+      chunk = Files.isRegularFile(acknowledged) ? PublishToFillTask.MapperHolder.MAPPER.readValue(acknowledged.toFile(), UploadRequest.Chunk.class) : null;
+    } catch (final IOException e) {
+      // unreadable, upload it again
+      return false;
+    }
+    if (chunk == null || chunk.index() != index || chunk.count() != count || chunk.offset() != offset || chunk.size() != length) {
+      return false;
+    }
+    final Hasher hasher = Hashing.sha256().newHasher();
+    try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BUFFER_SIZE);
+      long position = offset;
+      while (position < offset + length) {
+        buffer.clear().limit((int) Math.min(buffer.capacity(), offset + length - position));
+        if (channel.read(buffer, position) < 0) {
+          throw new IOException("File " + path + " changed while it was being read");
+        }
+        buffer.flip();
+        file.put(position, buffer);
+        position += buffer.remaining();
+        hasher.putBytes(buffer);
+      }
+    }
+    // a file that changed since is uploaded again
+    return hasher.hash().toString().equals(chunk.sha256());
+  }
+
+  static Path chunks(final Path result) {
+    return result.resolveSibling(result.getFileName() + ".chunks");
+  }
+
+  private static void deleteChunks(final Path chunks) throws IOException {
+    if (Files.isDirectory(chunks)) {
+      try (final Stream<Path> files = Files.list(chunks)) {
+        for (final Path file : (Iterable<Path>) files::iterator) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(chunks);
+    }
+  }
+
+  private static void write(final Path file, final UploadRequest.Chunk chunk) throws IOException {
+    final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    PublishToFillTask.MapperHolder.MAPPER.writeValue(temp.toFile(), chunk);
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static String json(final UploadRequest request) {
+    try {
+      return PublishToFillTask.MapperHolder.MAPPER.writeValueAsString(request);
+    } catch (final JsonProcessingException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static HttpRequest.BodyPublisher throttle(final Parameters parameters, final HttpRequest.BodyPublisher publisher) {
+    final TokenBucket bandwidth = parameters.getService().get().uploadBandwidth();
+    return bandwidth != null ? new ThrottledBodyPublisher(publisher, bandwidth) : publisher;
+  }
+
+  private static Tree join(final ForkJoinTask<Tree> tree) throws IOException, InterruptedException {
+    try {
+      return tree.get();
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof final IOException cause) {
+        throw cause;
+      }
+      throw new GradleException("Failed to compute tree checksum", e.getCause());
+    }
+  }
+
+  private HttpRequest uploadRequest(final Parameters parameters, final MultipartBody body) {
+    return PublishToFillTask.newRequest(parameters.getApiUrl().get() + "/upload", parameters.getRequestTimeout().getOrNull())
+      .header("Content-Type", body.contentType())
+      .header("Authorization", parameters.getApiToken().get())
+      .POST(body.publisher())
+      .build();
+  }
+
+  @NullMarked
+  public interface Parameters extends WorkParameters {
+    Property<FillService> getService();
+
+    /**
+     * The path of the task the upload belongs to.
+     *
+     * @return the owner
+     */
+    Property<String> getOwner();
+
+    /**
+     * The id of the {@link UploadBatch} the upload belongs to.
+     *
+     * @return the batch
+     */
+    Property<String> getBatch();
+
+    Property<String> getApiUrl();
+
+    Property<String> getApiToken();
+
+    Property<String> getSessionId();
+
+    /**
+     * The checksums computed in addition to sha256.
+     *
+     * @return the checksum algorithms
+     */
+    SetProperty<ChecksumAlgorithm> getChecksumAlgorithms();
+
+    /**
+     * The segment size of the tree checksum, if computed.
+     *
+     * @return the segment size
+     */
+    Property<Long> getTreeSegmentSize();
+
+    Property<Long> getChunkSize();
+
+    Property<Duration> getRequestTimeout();
+
+    /**
+     * How long an upload may send nothing before it is failed, if at all.
+     *
+     * @return the stall timeout
+     */
+    Property<Duration> getStallTimeout();
+
+    /**
+     * The deadline of the publish the upload belongs to.
+     *
+     * @return the deadline
+     */
+    Property<Deadline> getDeadline();
+
+    Property<RetryPolicy> getRetryPolicy();
+  }
+
+  @NullMarked
+  private record Tree(
+    @Nullable TreeChecksum checksum,
+    long nanos
+  ) {
+  }
+
+  /**
+   * The result of an upload.
+   *
+   * @param checksums the checksums of the uploaded bytes
+   * @param size the number of uploaded bytes
+   * @param hashNanos the time spent hashing
+   * @param uploadNanos the time from sending the upload until its response
+   * @param retries the retries made, by endpoint
+   */
+  @NullMarked
+  record Result(
+    Checksums checksums,
+    long size,
+    long hashNanos,
+    long uploadNanos,
+    Map<String, Integer> retries
+  ) {
+    Result withRetries(final Map<String, Integer> retries) {
+      return new Result(this.checksums, this.size, this.hashNanos, this.uploadNanos, retries);
+    }
+
+    /**
+     * Reads the result of an upload.
+     *
+     * @param file the result file
+     * @return the result, or {@code null} if the upload has no result
+     */
+    static @Nullable Result read(final Path file) {
+      if (!Files.isRegularFile(file)) {
+        return null;
+      }
+      try {
+        return PublishToFillTask.MapperHolder.MAPPER.readValue(file.toFile(), Result.class);
+      } catch (final IOException e) {
+        // unreadable, upload again
+        return null;
+      }
+    }
+
+    void write(final Path file) throws IOException {
+      // moved into place once complete, so a build that is killed never leaves a partial result
+      final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+      PublishToFillTask.MapperHolder.MAPPER.writeValue(temp.toFile(), this);
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.task;
+
+import io.papermc.fill.gradle.http.ProgressBodyPublisher;
+import io.papermc.fill.gradle.service.UploadBatch;
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Tracks the bytes sent of an upload, for the task to {@link ProgressDisplay show}, and fails the upload
+ * when it sends nothing for longer than the stall timeout.
+ *
+ * <p>A chunked upload is tracked as a whole, every chunk is {@link #track(HttpRequest.BodyPublisher) tracked}
+ * in turn and {@link #completed(long) completed} once it is acknowledged.</p>
+ */
+@NullMarked
+final class UploadProgress implements UploadBatch.Progress, AutoCloseable {
+  private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private final String name;
+  private final long total;
+  private final @Nullable Duration stallTimeout;
+  private final AtomicLong completed = new AtomicLong();
+  private volatile @Nullable ProgressBodyPublisher current;
+  private final Thread thread;
+
+  private UploadProgress(final String name, final long total, final @Nullable Duration stallTimeout) {
+    this.name = name;
+    this.total = total;
+    this.stallTimeout = stallTimeout;
+    this.thread = Thread.ofVirtual().name("fill-upload-progress-" + name).unstarted(this::monitor);
+  }
+
+  static UploadProgress start(final String name, final long total, final @Nullable Duration stallTimeout) {
+    final UploadProgress progress = new UploadProgress(name, total, stallTimeout);
+    progress.thread.start();
+    return progress;
+  }
+
+  /**
+   * Tracks the bytes sent from a publisher, until the next one is tracked.
+   *
+   * @param delegate the publisher
+   * @return the tracked publisher
+   */
+  ProgressBodyPublisher track(final HttpRequest.BodyPublisher delegate) {
+    final ProgressBodyPublisher publisher = new ProgressBodyPublisher(delegate);
+    this.current = publisher;
+    return publisher;
+  }
+
+  /**
+   * Gets how long the server has taken to answer since the current publisher was sent in full.
+   *
+   * @param startNanos when the request was sent, used if the publisher was not sent in full
+   * @return the time in nanoseconds
+   */
+  long waitedSinceSent(final long startNanos) {
+    final ProgressBodyPublisher current = this.current;
+    final long sent = current != null ? current.sentAt().orElse(startNanos) : startNanos;
+    return System.nanoTime() - sent;
+  }
+
+  /**
+   * Records bytes of the upload that were acknowledged, ending tracking of the current publisher.
+   *
+   * @param bytes the number of bytes
+   */
+  void completed(final long bytes) {
+    this.completed.addAndGet(bytes);
+    this.current = null;
+  }
+
+  @Override
+  public String name() {
+    return this.name;
+  }
+
+  @Override
+  public long total() {
+    return this.total;
+  }
+
+  @Override
+  public long sent() {
+    final ProgressBodyPublisher current = this.current;
+    return this.completed.get() + (current != null ? current.sent() : 0);
+  }
+
+  private void monitor() {
+    long lastSent = 0;
+    long lastChange = System.nanoTime();
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        TimeUnit.NANOSECONDS.sleep(INTERVAL_NANOS);
+        final long now = System.nanoTime();
+        final long sent = this.sent();
+        final ProgressBodyPublisher current = this.current;
+        // only time spent sending counts, not waiting for a response or to retry
+        if (sent != lastSent || current == null || !current.sending()) {
+          lastChange = now;
+        } else if (this.stallTimeout != null && now - lastChange >= this.stallTimeout.toNanos()) {
+          current.fail(new IOException("Upload stalled, no bytes were sent for " + TimeUnit.NANOSECONDS.toSeconds(now - lastChange) + " s"));
+        }
+        lastSent = sent;
+      }
+    } catch (final InterruptedException e) {
+      // closed
+    }
+  }
+
+  @Override
+  public void close() {
+    this.thread.interrupt();
+    try {
+      this.thread.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -15,10 +15,19 @@
  */
 package io.papermc.fill.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
 
+@JsonInclude(JsonInclude.Include.NON_NULL)
 @NullMarked
 public record Checksums(
-  String sha256
+  String sha256,
+  @Nullable String sha512,
+  @Nullable String crc32c,
+  @Nullable TreeChecksum tree
 ) {
+  public Checksums(final String sha256) {
+    this(sha256, null, null, null);
+  }
 }
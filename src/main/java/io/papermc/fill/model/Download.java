@@ -21,6 +21,6 @@ import org.jspecify.annotations.NullMarked;
 public record Download(
   String name,
   Checksums checksums,
-  int size
+  long size
 ) {
 }
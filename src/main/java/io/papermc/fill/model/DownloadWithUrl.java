@@ -22,7 +22,7 @@ import org.jspecify.annotations.NullMarked;
 public record DownloadWithUrl(
   String name,
   Checksums checksums,
-  int size,
+  long size,
   URI url
 ) {
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.model;
+
+import java.util.List;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * A sha256 merkle tree over the fixed size segments of a file.
+ *
+ * <p>A leaf is the sha256 of {@code 0x00} followed by the bytes of its segment, a node is the sha256 of
+ * {@code 0x01} followed by the hashes of its two children. A node without a sibling moves up a level unchanged.</p>
+ *
+ * @param segmentSize the size of every segment but the last
+ * @param root the root hash
+ * @param segments the leaf hashes, in file order
+ */
+@NullMarked
+public record TreeChecksum(
+  long segmentSize,
+  String root,
+  List<String> segments
+) {
+}
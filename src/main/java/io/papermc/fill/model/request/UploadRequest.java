@@ -15,11 +15,37 @@
  */
 package io.papermc.fill.model.request;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import java.util.UUID;
 import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
 
+@JsonInclude(JsonInclude.Include.NON_NULL)
 @NullMarked
 public record UploadRequest(
-  UUID id
+  UUID id,
+  @Nullable Chunk chunk
 ) {
+  public UploadRequest(final UUID id) {
+    this(id, null);
+  }
+
+  /**
+   * A segment of a file uploaded in several requests.
+   *
+   * @param index the index of this chunk
+   * @param count the total number of chunks
+   * @param offset the offset of this chunk in the file
+   * @param size the size of this chunk
+   * @param sha256 the checksum of this chunk
+   */
+  @NullMarked
+  public record Chunk(
+    int index,
+    int count,
+    long offset,
+    long size,
+    String sha256
+  ) {
+  }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.test;
+
+import io.papermc.fill.gradle.checksum.ChecksumCache;
+import io.papermc.fill.model.Checksums;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.jspecify.annotations.NullMarked;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks that cached checksums are reused across builds, invalidated when their file changes, and evicted
+ * and merged when saved.
+ */
+@NullMarked
+public class ChecksumCacheTest {
+  private static final ChecksumCache.Checksum CHECKSUM = new ChecksumCache.Checksum(new Checksums("0".repeat(64)), 4);
+
+  @TempDir
+  Path directory;
+
+  @Test
+  public void reusesEntriesOfUnchangedFiles() throws IOException {
+    final Path file = this.file("abcd");
+    this.cache(file);
+
+    final ChecksumCache cache = ChecksumCache.load(this.cacheFile());
+    assertEquals(CHECKSUM, cache.get(file));
+    assertEquals(CHECKSUM, cache.get(this.directory.resolve(".").resolve("download.jar")), "entries are keyed by the real path");
+  }
+
+  @Test
+  public void invalidatesEntriesWhenTheSizeChanges() throws IOException {
+    final Path file = this.file("abcd");
+    final FileTime modified = Files.getLastModifiedTime(file);
+    this.cache(file);
+
+    Files.writeString(file, "abcde");
+    Files.setLastModifiedTime(file, modified);
+    assertNull(ChecksumCache.load(this.cacheFile()).get(file));
+  }
+
+  @Test
+  public void invalidatesEntriesWhenTheModificationTimeChanges() throws IOException {
+    final Path file = this.file("abcd");
+    final FileTime modified = Files.getLastModifiedTime(file);
+    this.cache(file);
+
+    Files.writeString(file, "efgh");
+    Files.setLastModifiedTime(file, FileTime.fromMillis(modified.toMillis() + 1000));
+    assertNull(ChecksumCache.load(this.cacheFile()).get(file));
+  }
+
+  @Test
+  public void invalidatesEntriesWhenTheFileIsReplaced() throws IOException {
+    final Path file = this.file("abcd");
+    final FileTime modified = Files.getLastModifiedTime(file);
+    final Object key = Files.readAttributes(file, "fileKey").get("fileKey");
+    this.cache(file);
+
+    // a new file of the same size and modification time, as a build writing to a temp file and moving it would leave
+    final Path replacement = this.directory.resolve("replacement.jar");
+    Files.writeString(replacement, "efgh");
+    Files.setLastModifiedTime(replacement, modified);
+    Files.move(replacement, file, StandardCopyOption.REPLACE_EXISTING);
+    assertNotNull(key, "the file system has to expose file keys");
+    assertNotEquals(key, Files.readAttributes(file, "fileKey").get("fileKey"));
+    assertNull(ChecksumCache.load(this.cacheFile()).get(file));
+  }
+
+  @Test
+  public void rejectsChecksumsOfFilesChangedWhileHashing() throws IOException {
+    final Path file = this.file("abcd");
+    final FileTime modified = Files.getLastModifiedTime(file);
+    final ChecksumCache cache = ChecksumCache.load(this.cacheFile());
+    final BasicFileAttributes attributes = ChecksumCache.attributes(file);
+
+    // rewritten at the same size after the attributes were read, while the old contents were hashed
+    Files.writeString(file, "efgh");
+    Files.setLastModifiedTime(file, FileTime.fromMillis(modified.toMillis() + 1000));
+    cache.put(file, attributes, CHECKSUM);
+    assertNull(cache.get(file));
+  }
+
+  @Test
+  public void evictsTheLeastRecentlyUsedEntries() throws IOException, InterruptedException {
+    final Path oldest = this.file("abcd");
+    this.cache(oldest);
+    // entries used in the same millisecond have no order
+    Thread.sleep(10);
+
+    final ChecksumCache cache = ChecksumCache.load(this.cacheFile());
+    final List<Path> files = new ArrayList<>();
+    for (int i = 0; i < ChecksumCache.MAX_ENTRIES; i++) {
+      final Path file = this.file("download" + i + ".jar", "abcd");
+      cache.put(file, ChecksumCache.attributes(file), CHECKSUM);
+      files.add(file);
+    }
+    cache.save();
+
+    final ChecksumCache loaded = ChecksumCache.load(this.cacheFile());
+    assertNull(loaded.get(oldest));
+    for (final Path file : files) {
+      assertEquals(CHECKSUM, loaded.get(file));
+    }
+  }
+
+  @Test
+  public void mergesEntriesSavedByOtherBuilds() throws IOException {
+    final Path first = this.file("first.jar", "abcd");
+    final Path second = this.file("second.jar", "abcd");
+    final ChecksumCache one = ChecksumCache.load(this.cacheFile());
+    final ChecksumCache other = ChecksumCache.load(this.cacheFile());
+
+    one.put(first, ChecksumCache.attributes(first), CHECKSUM);
+    other.put(second, ChecksumCache.attributes(second), CHECKSUM);
+    one.save();
+    other.save();
+
+    final ChecksumCache loaded = ChecksumCache.load(this.cacheFile());
+    assertEquals(CHECKSUM, loaded.get(first));
+    assertEquals(CHECKSUM, loaded.get(second));
+  }
+
+  private Path file(final String contents) throws IOException {
+    return this.file("download.jar", contents);
+  }
+
+  private Path file(final String name, final String contents) throws IOException {
+    final Path file = this.directory.resolve(name);
+    Files.writeString(file, contents);
+    return file;
+  }
+
+  private void cache(final Path file) throws IOException {
+    final ChecksumCache cache = ChecksumCache.load(this.cacheFile());
+    assertNull(cache.get(file));
+    cache.put(file, ChecksumCache.attributes(file), CHECKSUM);
+    cache.save();
+  }
+
+  private Path cacheFile() {
+    return this.directory.resolve("cache/checksums.json");
+  }
+}
@@ -0,0 +1,586 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.papermc.fill.gradle.task.PublishToFillTask;
+import io.papermc.fill.model.Download;
+import io.papermc.fill.model.DownloadWithUrl;
+import io.papermc.fill.model.Java;
+import io.papermc.fill.model.Support;
+import io.papermc.fill.model.SupportStatus;
+import io.papermc.fill.model.request.PublishRequest;
+import io.papermc.fill.model.request.UploadExistsRequest;
+import io.papermc.fill.model.request.UploadRequest;
+import io.papermc.fill.model.response.UploadExistsResponse;
+import io.papermc.fill.model.response.v3.BuildResponse;
+import io.papermc.fill.model.response.v3.VersionResponse;
+import io.papermc.fill.model.response.v3.VersionsResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A local stand-in for the Fill api, for integration and load tests.
+ *
+ * <p>Implements {@code /upload}, {@code /upload/exists}, {@code /publish} and the v3 versions and builds
+ * endpoints with the same json shapes as the api. Latency, bandwidth and failures can be injected,
+ * by endpoint name: {@code upload}, {@code upload/exists}, {@code publish}, {@code versions} and {@code builds}.</p>
+ */
+@NullMarked
+public final class FakeFillServer implements AutoCloseable {
+  private static final ObjectMapper MAPPER = PublishToFillTask.MapperHolder.MAPPER;
+  private static final Pattern VERSIONS = Pattern.compile("/v3/projects/([^/]+)/versions");
+  private static final Pattern BUILDS = Pattern.compile("/v3/projects/([^/]+)/versions/([^/]+)/builds");
+  private static final Pattern BOUNDARY = Pattern.compile("boundary=\"?([^\";]+)\"?");
+  private static final Pattern NAME = Pattern.compile("; name=\"([^\"]+)\"");
+  private static final Pattern FILENAME = Pattern.compile("; filename=\"([^\"]+)\"");
+  private final HttpServer server;
+  // a queued failure answering the request normally
+  private static final int SUCCEED = 0;
+  private final String token;
+  private volatile Duration latency = Duration.ZERO;
+  private volatile long bandwidth;
+  private volatile double errorRate;
+  private final AtomicInteger stalls = new AtomicInteger();
+  private final AtomicInteger lostPublishes = new AtomicInteger();
+  private volatile Duration stall = Duration.ZERO;
+  private final Map<String, Deque<Integer>> failures = new ConcurrentHashMap<>();
+  private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+  private final Map<String, AtomicInteger> conditionalRequests = new ConcurrentHashMap<>();
+  private final Map<String, AtomicInteger> notModified = new ConcurrentHashMap<>();
+  private final Map<String, Long> objects = new ConcurrentHashMap<>();
+  private final Map<String, Map<Integer, byte[]>> chunks = new ConcurrentHashMap<>();
+  private final Map<String, Map<String, List<BuildResponse>>> builds = new LinkedHashMap<>();
+  private final List<PublishRequest> published = new ArrayList<>();
+  private final AtomicInteger activeUploads = new AtomicInteger();
+  private final AtomicInteger maxActiveUploads = new AtomicInteger();
+  private final AtomicLong bytesReceived = new AtomicLong();
+
+  private FakeFillServer(final HttpServer server, final String token) {
+    this.server = server;
+    this.token = token;
+  }
+
+  /**
+   * Starts a server on a free local port.
+   *
+   * @param token the api token requests have to be authorized with
+   * @return the server
+   * @throws IOException if the server could not be started
+   */
+  public static FakeFillServer start(final String token) throws IOException {
+    final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    final FakeFillServer fill = new FakeFillServer(server, token);
+    server.createContext("/", fill::handle);
+    server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    server.start();
+    return fill;
+  }
+
+  public URI url() {
+    return URI.create("http://" + this.server.getAddress().getHostString() + ":" + this.server.getAddress().getPort());
+  }
+
+  /**
+   * Sets the time every request takes before it is answered.
+   *
+   * @param latency the latency
+   * @return this server
+   */
+  public FakeFillServer latency(final Duration latency) {
+    this.latency = latency;
+    return this;
+  }
+
+  /**
+   * Sets the rate request bodies are read at.
+   *
+   * @param bytesPerSecond the bandwidth, or {@code 0} for unlimited
+   * @return this server
+   */
+  public FakeFillServer bandwidth(final long bytesPerSecond) {
+    this.bandwidth = bytesPerSecond;
+    return this;
+  }
+
+  /**
+   * Answers the next requests to an endpoint with an error status.
+   *
+   * @param endpoint the endpoint
+   * @param status the status
+   * @param times the number of requests to fail
+   * @return this server
+   */
+  public FakeFillServer fail(final String endpoint, final int status, final int times) {
+    final Deque<Integer> failures = this.failures.computeIfAbsent(endpoint, key -> new ArrayDeque<>());
+    synchronized (failures) {
+      for (int i = 0; i < times; i++) {
+        failures.add(status);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Answers requests to an endpoint with an error status, after answering a number of them normally.
+   *
+   * @param endpoint the endpoint
+   * @param succeeding the number of requests to answer normally first
+   * @param status the status
+   * @param times the number of requests to fail
+   * @return this server
+   */
+  public FakeFillServer failAfter(final String endpoint, final int succeeding, final int status, final int times) {
+    this.fail(endpoint, SUCCEED, succeeding);
+    return this.fail(endpoint, status, times);
+  }
+
+  /**
+   * Stops reading the bodies of the next uploads for a while, before reading any of it.
+   *
+   * @param duration how long to stop reading
+   * @param times the number of uploads to stall
+   * @return this server
+   */
+  public FakeFillServer stall(final Duration duration, final int times) {
+    this.stall = duration;
+    this.stalls.set(times);
+    return this;
+  }
+
+  /**
+   * Publishes the next builds, but breaks the connection instead of answering, so the publisher cannot
+   * tell whether they were published.
+   *
+   * @param times the number of publishes to lose the answer of
+   * @return this server
+   */
+  public FakeFillServer losePublishes(final int times) {
+    this.lostPublishes.set(times);
+    return this;
+  }
+
+  /**
+   * Answers a random fraction of all requests with {@code 503 Service Unavailable}.
+   *
+   * @param rate the fraction of requests to fail, between {@code 0} and {@code 1}
+   * @return this server
+   */
+  public FakeFillServer errorRate(final double rate) {
+    this.errorRate = rate;
+    return this;
+  }
+
+  /**
+   * Adds an existing build, as if it had been published before.
+   *
+   * @param project the project
+   * @param version the version
+   * @param build the build
+   * @return this server
+   */
+  public synchronized FakeFillServer addBuild(final String project, final String version, final BuildResponse build) {
+    this.builds.computeIfAbsent(project, key -> new LinkedHashMap<>())
+      .computeIfAbsent(version, key -> new ArrayList<>())
+      .addFirst(build);
+    return this;
+  }
+
+  public int requests(final String endpoint) {
+    final AtomicInteger count = this.requests.get(endpoint);
+    return count != null ? count.get() : 0;
+  }
+
+  /**
+   * Counts the requests to an endpoint that carried an {@code If-None-Match} header.
+   *
+   * @param endpoint the endpoint
+   * @return the number of conditional requests
+   */
+  public int conditionalRequests(final String endpoint) {
+    final AtomicInteger count = this.conditionalRequests.get(endpoint);
+    return count != null ? count.get() : 0;
+  }
+
+  /**
+   * Counts the requests to an endpoint answered with {@code 304 Not Modified}.
+   *
+   * @param endpoint the endpoint
+   * @return the number of requests answered without a body
+   */
+  public int notModified(final String endpoint) {
+    final AtomicInteger count = this.notModified.get(endpoint);
+    return count != null ? count.get() : 0;
+  }
+
+  public synchronized List<PublishRequest> published() {
+    return List.copyOf(this.published);
+  }
+
+  public Set<String> objects() {
+    return Set.copyOf(this.objects.keySet());
+  }
+
+  public int maxActiveUploads() {
+    return this.maxActiveUploads.get();
+  }
+
+  public long bytesReceived() {
+    return this.bytesReceived.get();
+  }
+
+  @Override
+  public void close() {
+    this.server.stop(0);
+  }
+
+  private void handle(final HttpExchange exchange) throws IOException {
+    try (exchange) {
+      final String path = exchange.getRequestURI().getPath();
+      final String endpoint = endpoint(exchange.getRequestMethod(), path);
+      if (endpoint == null) {
+        this.respond(exchange, 404, null);
+        return;
+      }
+      this.requests.computeIfAbsent(endpoint, key -> new AtomicInteger()).incrementAndGet();
+      final boolean upload = endpoint.equals("upload");
+      if (upload) {
+        this.maxActiveUploads.accumulateAndGet(this.activeUploads.incrementAndGet(), Math::max);
+      }
+      try {
+        if (upload && this.stalls.getAndUpdate(stalls -> Math.max(0, stalls - 1)) > 0) {
+          Thread.sleep(this.stall);
+        }
+        final byte[] body = this.read(exchange.getRequestBody());
+        Thread.sleep(this.latency);
+        final Integer failure = this.failure(endpoint);
+        if (failure != null) {
+          this.respond(exchange, failure, null);
+          return;
+        }
+        final boolean write = !exchange.getRequestMethod().equals("GET");
+        if (write && !this.token.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+          this.respond(exchange, 401, null);
+          return;
+        }
+        switch (endpoint) {
+          case "upload" -> this.upload(exchange, body);
+          case "upload/exists" -> this.uploadExists(exchange, body);
+          case "publish" -> this.publish(exchange, body);
+          case "versions" -> this.versions(exchange, path);
+          case "builds" -> this.builds(exchange, path);
+          default -> this.respond(exchange, 404, null);
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        this.respond(exchange, 503, null);
+      } catch (final IOException | RuntimeException e) {
+        this.respond(exchange, 400, e.toString().getBytes(StandardCharsets.UTF_8));
+      } finally {
+        if (upload) {
+          this.activeUploads.decrementAndGet();
+        }
+      }
+    }
+  }
+
+  private static @Nullable String endpoint(final String method, final String path) {
+    if (method.equals("POST")) {
+      return switch (path) {
+        case "/upload" -> "upload";
+        case "/upload/exists" -> "upload/exists";
+        case "/publish" -> "publish";
+        default -> null;
+      };
+    } else if (method.equals("GET")) {
+      if (BUILDS.matcher(path).matches()) {
+        return "builds";
+      } else if (VERSIONS.matcher(path).matches()) {
+        return "versions";
+      }
+    }
+    return null;
+  }
+
+  private @Nullable Integer failure(final String endpoint) {
+    final Deque<Integer> failures = this.failures.get(endpoint);
+    if (failures != null) {
+      synchronized (failures) {
+        final Integer status = failures.poll();
+        if (status != null) {
+          return status != SUCCEED ? status : null;
+        }
+      }
+    }
+    if (this.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < this.errorRate) {
+      return 503;
+    }
+    return null;
+  }
+
+  private byte[] read(final InputStream in) throws IOException, InterruptedException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[16 * 1024];
+    final long start = System.nanoTime();
+    long total = 0;
+    int read;
+    while ((read = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, read);
+      total += read;
+      this.bytesReceived.addAndGet(read);
+      final long bandwidth = this.bandwidth;
+      if (bandwidth > 0) {
+        // sleep until the bytes read so far fit the bandwidth
+        final long due = start + total * 1_000_000_000L / bandwidth;
+        final long wait = due - System.nanoTime();
+        if (wait > 0) {
+          Thread.sleep(Duration.ofNanos(wait));
+        }
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private void upload(final HttpExchange exchange, final byte[] body) throws IOException {
+    final String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+    final Matcher boundary = contentType != null ? BOUNDARY.matcher(contentType) : null;
+    if (boundary == null || !boundary.find()) {
+      this.respond(exchange, 400, null);
+      return;
+    }
+    final Map<String, Part> parts = parts(body, boundary.group(1));
+    final Part json = parts.get("request");
+    final Part part = parts.get("file");
+    if (json == null || part == null || part.filename() == null) {
+      this.respond(exchange, 400, null);
+      return;
+    }
+    final UploadRequest request = MAPPER.readValue(json.content(), UploadRequest.class);
+    final byte[] file = part.content();
+    final UploadRequest.Chunk chunk = request.chunk();
+    if (chunk == null) {
+      this.objects.put(sha256(file), (long) file.length);
+    } else {
+      if (file.length != chunk.size() || !sha256(file).equals(chunk.sha256())) {
+        this.respond(exchange, 400, null);
+        return;
+      }
+      this.chunk(request.id() + "/" + part.filename(), chunk, file);
+    }
+    this.respond(exchange, 200, null);
+  }
+
+  private void chunk(final String key, final UploadRequest.Chunk chunk, final byte[] bytes) {
+    final Map<Integer, byte[]> received = this.chunks.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+    received.put(chunk.index(), bytes);
+    if (received.size() == chunk.count()) {
+      final ByteArrayOutputStream file = new ByteArrayOutputStream();
+      new TreeMap<>(received).values().forEach(file::writeBytes);
+      this.objects.put(sha256(file.toByteArray()), (long) file.size());
+      this.chunks.remove(key);
+    }
+  }
+
+  private void uploadExists(final HttpExchange exchange, final byte[] body) throws IOException {
+    final UploadExistsRequest request = MAPPER.readValue(body, UploadExistsRequest.class);
+    final List<String> existing = request.sha256().stream().filter(this.objects::containsKey).toList();
+    this.respond(exchange, 200, MAPPER.writeValueAsBytes(new UploadExistsResponse(existing)));
+  }
+
+  private void publish(final HttpExchange exchange, final byte[] body) throws IOException {
+    final PublishRequest request = MAPPER.readValue(body, PublishRequest.class);
+    final Map<String, DownloadWithUrl> downloads = new HashMap<>();
+    for (final Map.Entry<String, Download> entry : request.downloads().entrySet()) {
+      final Download download = entry.getValue();
+      final Long size = this.objects.get(download.checksums().sha256());
+      if (size == null || size != download.size()) {
+        this.respond(exchange, 400, ("Unknown download " + download.name()).getBytes(StandardCharsets.UTF_8));
+        return;
+      }
+      downloads.put(entry.getKey(), new DownloadWithUrl(download.name(), download.checksums(), download.size(), this.url().resolve("/objects/" + download.checksums().sha256())));
+    }
+    synchronized (this) {
+      if (this.published.stream().anyMatch(existing -> existing.id().equals(request.id()))) {
+        this.respond(exchange, 409, null);
+        return;
+      }
+      this.published.add(request);
+    }
+    // commits are published oldest first, the api lists them newest first
+    this.addBuild(request.project(), request.version(), new BuildResponse(request.build(), request.time(), request.channel(), request.commits().reversed(), downloads));
+    if (this.lostPublishes.getAndUpdate(lost -> Math.max(0, lost - 1)) > 0) {
+      // promises a body that never comes, so the connection breaks once the exchange is closed
+      exchange.sendResponseHeaders(201, 1);
+      return;
+    }
+    this.respond(exchange, 201, null);
+  }
+
+  private void versions(final HttpExchange exchange, final String path) throws IOException {
+    final Matcher matcher = VERSIONS.matcher(path);
+    if (!matcher.matches()) {
+      this.respond(exchange, 404, null);
+      return;
+    }
+    final List<VersionResponse> versions = new ArrayList<>();
+    synchronized (this) {
+      this.builds.getOrDefault(matcher.group(1), Map.of()).forEach((version, builds) -> versions.addFirst(new VersionResponse(
+        new VersionResponse.Version(version, new Support(SupportStatus.SUPPORTED, null), new Java(new Java.JavaVersion(21), new Java.JavaFlags(List.of()))),
+        builds.stream().map(BuildResponse::id).toList()
+      )));
+    }
+    this.respondCached(exchange, "versions", MAPPER.writeValueAsBytes(new VersionsResponse(versions)));
+  }
+
+  private void builds(final HttpExchange exchange, final String path) throws IOException {
+    final Matcher matcher = BUILDS.matcher(path);
+    if (!matcher.matches()) {
+      this.respond(exchange, 404, null);
+      return;
+    }
+    List<BuildResponse> builds;
+    synchronized (this) {
+      builds = List.copyOf(this.builds.getOrDefault(matcher.group(1), Map.of()).getOrDefault(matcher.group(2), List.of()));
+    }
+    final Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+    if (query.containsKey("limit")) {
+      final int offset = Math.min(builds.size(), Integer.parseInt(query.getOrDefault("offset", "0")));
+      final int limit = Integer.parseInt(query.get("limit"));
+      builds = builds.subList(offset, Math.min(builds.size(), offset + limit));
+    }
+    this.respondCached(exchange, "builds", MAPPER.writeValueAsBytes(builds));
+  }
+
+  private void respondCached(final HttpExchange exchange, final String endpoint, final byte[] body) throws IOException {
+    final String etag = '"' + sha256(body) + '"';
+    exchange.getResponseHeaders().set("ETag", etag);
+    final String condition = exchange.getRequestHeaders().getFirst("If-None-Match");
+    if (condition != null) {
+      this.conditionalRequests.computeIfAbsent(endpoint, key -> new AtomicInteger()).incrementAndGet();
+    }
+    if (etag.equals(condition)) {
+      this.notModified.computeIfAbsent(endpoint, key -> new AtomicInteger()).incrementAndGet();
+      this.respond(exchange, 304, null);
+      return;
+    }
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    this.respond(exchange, 200, body);
+  }
+
+  private void respond(final HttpExchange exchange, final int status, final byte @Nullable [] body) throws IOException {
+    if (body == null) {
+      exchange.sendResponseHeaders(status, -1);
+      return;
+    }
+    exchange.sendResponseHeaders(status, body.length);
+    try (final OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private static Map<String, String> query(final @Nullable String query) {
+    final Map<String, String> parameters = new HashMap<>();
+    if (query != null) {
+      for (final String parameter : query.split("&")) {
+        final int equals = parameter.indexOf('=');
+        if (equals > 0) {
+          parameters.put(parameter.substring(0, equals), parameter.substring(equals + 1));
+        }
+      }
+    }
+    return parameters;
+  }
+
+  private static Map<String, Part> parts(final byte[] body, final String boundary) {
+    final byte[] delimiter = ("--" + boundary).getBytes(StandardCharsets.US_ASCII);
+    final byte[] separator = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    final Map<String, Part> parts = new HashMap<>();
+    int start = indexOf(body, delimiter, 0);
+    while (start >= 0) {
+      final int headers = start + delimiter.length + 2;
+      final int next = indexOf(body, delimiter, headers);
+      if (next < 0) {
+        break;
+      }
+      final int content = indexOf(body, separator, headers);
+      if (content < 0 || content > next) {
+        break;
+      }
+      final String header = new String(body, headers, content - headers, StandardCharsets.UTF_8);
+      final Matcher name = NAME.matcher(header);
+      if (name.find()) {
+        final Matcher filename = FILENAME.matcher(header);
+        // the content is followed by the crlf that precedes the next delimiter
+        parts.put(name.group(1), new Part(filename.find() ? filename.group(1) : null, Arrays.copyOfRange(body, content + separator.length, next - 2)));
+      }
+      start = next;
+    }
+    return parts;
+  }
+
+  private static int indexOf(final byte[] array, final byte[] target, final int from) {
+    outer:
+    for (int i = from; i <= array.length - target.length; i++) {
+      for (int j = 0; j < target.length; j++) {
+        if (array[i + j] != target[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  private static String sha256(final byte[] bytes) {
+    return Hashing.sha256().hashBytes(bytes).toString();
+  }
+
+  @NullMarked
+  private record Part(
+    @Nullable String filename,
+    byte[] content
+  ) {
+  }
+}
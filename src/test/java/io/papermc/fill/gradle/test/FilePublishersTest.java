@@ -0,0 +1,144 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.test;
+
+import io.papermc.fill.gradle.http.FilePublishers;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
+import org.jspecify.annotations.NullMarked;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks that a region of a file is streamed as is, and that the file is closed when the stream is cancelled.
+ */
+@NullMarked
+public class FilePublishersTest {
+  private static final Path OPEN_FILES = Path.of("/proc/self/fd");
+
+  @TempDir
+  Path directory;
+
+  @Test
+  public void streamsTheRegion() throws IOException, InterruptedException, ExecutionException {
+    final byte[] bytes = this.bytes(1024 * 1024);
+    final Path file = this.directory.resolve("download.jar");
+    Files.write(file, bytes);
+
+    final HttpRequest.BodyPublisher publisher = FilePublishers.ofRegion(file, 1000, 300_000);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final CompletableFuture<Void> done = new CompletableFuture<>();
+    publisher.subscribe(new Flow.Subscriber<>() {
+      @Override
+      public void onSubscribe(final Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+      }
+
+      @Override
+      public void onNext(final ByteBuffer item) {
+        out.write(item.array(), item.arrayOffset() + item.position(), item.remaining());
+      }
+
+      @Override
+      public void onError(final Throwable throwable) {
+        done.completeExceptionally(throwable);
+      }
+
+      @Override
+      public void onComplete() {
+        done.complete(null);
+      }
+    });
+    done.get();
+
+    assertEquals(300_000, publisher.contentLength());
+    assertArrayEquals(Arrays.copyOfRange(bytes, 1000, 301_000), out.toByteArray());
+    assertEquals(0, this.openFiles(file), "the file should be closed once the region was sent");
+  }
+
+  @Test
+  public void closesTheFileWhenCancelled() throws IOException {
+    assumeTrue(Files.isDirectory(OPEN_FILES), "open files can only be listed on linux");
+    final Path file = this.directory.resolve("download.jar");
+    Files.write(file, this.bytes(1024 * 1024));
+
+    final int[] received = new int[1];
+    FilePublishers.ofRegion(file, 0, 1024 * 1024).subscribe(new Flow.Subscriber<>() {
+      private Flow.Subscription subscription;
+
+      @Override
+      public void onSubscribe(final Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+      }
+
+      @Override
+      public void onNext(final ByteBuffer item) {
+        received[0]++;
+        // as the http client does when a request times out mid-stream
+        this.subscription.cancel();
+      }
+
+      @Override
+      public void onError(final Throwable throwable) {
+      }
+
+      @Override
+      public void onComplete() {
+      }
+    });
+
+    assertEquals(1, received[0]);
+    assertEquals(0, this.openFiles(file), "the file should be closed once the stream was cancelled");
+  }
+
+  private byte[] bytes(final int size) {
+    final byte[] bytes = new byte[size];
+    new Random(size).nextBytes(bytes);
+    return bytes;
+  }
+
+  private long openFiles(final Path file) throws IOException {
+    if (!Files.isDirectory(OPEN_FILES)) {
+      return 0;
+    }
+    final Path real = file.toRealPath();
+    try (final Stream<Path> descriptors = Files.list(OPEN_FILES)) {
+      return descriptors.filter(descriptor -> {
+        try {
+          return Files.readSymbolicLink(descriptor).equals(real);
+        } catch (final IOException e) {
+          // closed while listing
+          return false;
+        }
+      }).count();
+    }
+  }
+}
@@ -18,8 +18,9 @@ package io.papermc.fill.gradle.test;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.papermc.fill.gradle.task.PublishToFillTask;
+import io.papermc.fill.model.BuildChannel;
+import io.papermc.fill.model.Commit;
 import io.papermc.fill.model.response.v3.BuildResponse;
-import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
@@ -27,22 +28,28 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 public class HttpTests {
 
     @Test
-    @Disabled // TODO
     public void test() throws InterruptedException, IOException {
-        String urlString = "http://localhost:3002/v3/projects/paper/versions/1.21.1/builds"; // TODO: Replace with actual URL later
-        String jsonResponse = fetchUrlContent(urlString);
-        assertNotNull(jsonResponse, "Fetched content should not be null");
+        try (FakeFillServer server = FakeFillServer.start("token")) {
+            server.addBuild("paper", "1.21.1", new BuildResponse(1, Instant.now(), BuildChannel.STABLE, List.of(new Commit("0123456789abcdef0123456789abcdef01234567", Instant.now(), "Initial commit")), Map.of()));
+            String urlString = server.url() + "/v3/projects/paper/versions/1.21.1/builds";
+            String jsonResponse = fetchUrlContent(urlString);
+            assertNotNull(jsonResponse, "Fetched content should not be null");
 
-        ObjectMapper objectMapper = PublishToFillTask.MapperHolder.MAPPER;
-        List<BuildResponse> builds = objectMapper.readValue(jsonResponse, new TypeReference<>() {});
-        assertNotNull(builds, "Parsed BuildsResponse should not be null");
+            ObjectMapper objectMapper = PublishToFillTask.MapperHolder.MAPPER;
+            List<BuildResponse> builds = objectMapper.readValue(jsonResponse, new TypeReference<>() {});
+            assertNotNull(builds, "Parsed BuildsResponse should not be null");
+            assertEquals(1, builds.size());
+        }
     }
 
     private String fetchUrlContent(String urlString) throws IOException, InterruptedException {
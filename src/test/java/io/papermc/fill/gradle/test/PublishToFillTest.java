@@ -0,0 +1,718 @@
+/*
+ * Copyright 2024 PaperMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.papermc.fill.gradle.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import io.papermc.fill.gradle.task.FlushFillSpoolTask;
+import io.papermc.fill.gradle.task.PublishToFillTask;
+import io.papermc.fill.model.BuildChannel;
+import io.papermc.fill.model.Checksums;
+import io.papermc.fill.model.Commit;
+import io.papermc.fill.model.Download;
+import io.papermc.fill.model.TreeChecksum;
+import io.papermc.fill.model.request.PublishRequest;
+import io.papermc.fill.model.response.v3.BuildResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.jspecify.annotations.NullMarked;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the publish tasks end to end against a {@link FakeFillServer}.
+ */
+@NullMarked
+public class PublishToFillTest {
+  private static final String TOKEN = "token";
+  private static final PersonIdent AUTHOR = new PersonIdent("Fill", "fill@papermc.io");
+
+  @TempDir
+  Path directory;
+
+  private FakeFillServer server;
+  private int commits;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    this.server = FakeFillServer.start(TOKEN);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    this.server.close();
+  }
+
+  @Test
+  public void publishesDownloadsAndCommits() throws IOException, GitAPIException {
+    final List<Path> files = this.project(2, 64 * 1024, "");
+    this.commit(3);
+
+    this.publish();
+
+    final List<PublishRequest> published = this.server.published();
+    assertEquals(1, published.size());
+    final PublishRequest request = published.getFirst();
+    assertEquals(List.of("Commit 0", "Commit 1", "Commit 2"), request.commits().stream().map(Commit::message).toList());
+    assertEquals(files.size(), request.downloads().size());
+    for (int i = 0; i < files.size(); i++) {
+      final Download download = request.downloads().get("download" + i);
+      assertEquals("paper-1.21.1-1-download" + i + ".jar", download.name());
+      assertEquals(sha256(files.get(i)), download.checksums().sha256());
+      assertEquals(Files.size(files.get(i)), download.size());
+    }
+  }
+
+  @Test
+  public void publishesNewCommitsWithCachedConfiguration() throws IOException, GitAPIException {
+    this.project(1, 1024, "");
+    this.commit(3);
+    this.publish();
+    this.commit(2);
+
+    final BuildResult result = this.publish();
+
+    assertTrue(result.getOutput().contains("Reusing configuration cache"), "configuration cache should be reused");
+    final List<PublishRequest> published = this.server.published();
+    assertEquals(2, published.size());
+    assertEquals(List.of("Commit 3", "Commit 4"), published.get(1).commits().stream().map(Commit::message).toList());
+  }
+
+  @Test
+  public void revalidatesCachedMetadata() throws IOException, GitAPIException {
+    this.project(1, 1024, "");
+    this.commit(3);
+    this.server.addBuild("paper", "1.21.1", new BuildResponse(1, Instant.now(), BuildChannel.STABLE, List.of(new Commit(this.head(2), Instant.now(), "Commit 0")), Map.of()));
+    // the publish fails, so the metadata is unchanged when publishing again
+    this.server.fail("publish", 500, 1);
+    this.gradle(PublishToFillTask.NAME).buildAndFail();
+    assertEquals(0, this.server.conditionalRequests("versions"));
+    assertEquals(0, this.server.conditionalRequests("builds"));
+
+    this.publish();
+
+    assertTrue(this.server.conditionalRequests("versions") > 0, "versions should be revalidated");
+    assertTrue(this.server.conditionalRequests("builds") > 0, "builds should be revalidated");
+    assertEquals(this.server.conditionalRequests("versions"), this.server.notModified("versions"));
+    assertEquals(this.server.conditionalRequests("builds"), this.server.notModified("builds"));
+    // the commits after the last published one can only be found in the cached builds
+    assertEquals(List.of("Commit 1", "Commit 2"), this.server.published().getFirst().commits().stream().map(Commit::message).toList());
+  }
+
+  @Test
+  public void pagesThroughBuildsWithoutCommits() throws IOException, GitAPIException {
+    this.project(1, 1024, "buildsPageSize(2)");
+    this.commit(3);
+    this.server.addBuild("paper", "1.21.1", new BuildResponse(10, Instant.now(), BuildChannel.STABLE, List.of(new Commit(this.head(2), Instant.now(), "Commit 0")), Map.of()));
+    for (int id = 11; id < 15; id++) {
+      this.server.addBuild("paper", "1.21.1", new BuildResponse(id, Instant.now(), BuildChannel.STABLE, List.of(), Map.of()));
+    }
+
+    this.publish();
+
+    // builds 14 and 13, 12 and 11, then 10 on a short last page
+    assertEquals(3, this.server.requests("builds"));
+    assertEquals(List.of("Commit 1", "Commit 2"), this.server.published().getFirst().commits().stream().map(Commit::message).toList());
+  }
+
+  @Test
+  public void stopsPagingAtTheLastPage() throws IOException, GitAPIException {
+    this.project(1, 1024, "buildsPageSize(2)");
+    this.commit(2);
+    for (int id = 10; id < 15; id++) {
+      this.server.addBuild("paper", "1.21.1", new BuildResponse(id, Instant.now(), BuildChannel.STABLE, List.of(), Map.of()));
+    }
+
+    this.publish();
+
+    // the third page holds a single build, so there is nothing after it
+    assertEquals(3, this.server.requests("builds"));
+    assertEquals(List.of("Commit 0", "Commit 1"), this.server.published().getFirst().commits().stream().map(Commit::message).toList());
+  }
+
+  @Test
+  public void stopsGatheringCommitsAtMaxCommits() throws IOException, GitAPIException {
+    this.project(1, 1024, "maxCommits(2)");
+    this.commit(5);
+
+    final BuildResult result = this.publish();
+
+    assertEquals(List.of("Commit 3", "Commit 4"), this.server.published().getFirst().commits().stream().map(Commit::message).toList());
+    assertTrue(result.getOutput().contains("Stopped gathering commits after 2 commits"), "the truncation should be reported");
+    assertFalse(result.getOutput().contains("is not in the local history"));
+  }
+
+  @Test
+  public void publishesAtMostMaxCommitsWhenTheLastCommitIsMissing() throws IOException, GitAPIException {
+    this.project(1, 1024, "maxCommits(3)");
+    this.commit(5);
+    final String missing = "0123456789abcdef0123456789abcdef01234567";
+    this.server.addBuild("paper", "1.21.1", new BuildResponse(10, Instant.now(), BuildChannel.STABLE, List.of(new Commit(missing, Instant.now(), "Force pushed")), Map.of()));
+
+    final BuildResult result = this.publish();
+
+    assertEquals(List.of("Commit 2", "Commit 3", "Commit 4"), this.server.published().getFirst().commits().stream().map(Commit::message).toList());
+    assertTrue(result.getOutput().contains("Last published commit " + missing + " is not in the local history, publishing at most 3 commits"), "the missing commit should be reported");
+    assertTrue(result.getOutput().contains("Stopped gathering commits after 3 commits"), "the truncation should be reported");
+  }
+
+  @Test
+  public void stopsAtTheBoundaryOfAShallowClone(@TempDir final Path origin) throws IOException, GitAPIException {
+    try (final Git git = Git.init().setDirectory(origin.toFile()).setInitialBranch("main").call()) {
+      for (int i = 0; i < 4; i++) {
+        git.commit().setAllowEmpty(true).setSign(false).setAuthor(AUTHOR).setCommitter(AUTHOR).setMessage("Commit " + this.commits++).call();
+      }
+    }
+    Git.cloneRepository().setURI(origin.toUri().toString()).setDirectory(this.directory.toFile()).setDepth(2).call().close();
+    this.project(1, 1024, "");
+
+    final BuildResult result = this.publish();
+
+    assertEquals(List.of("Commit 2", "Commit 3"), this.server.published().getFirst().commits().stream().map(Commit::message).toList());
+    assertTrue(result.getOutput().contains("Reached the boundary of a shallow clone at " + this.head(1)), "the shallow boundary should be reported");
+  }
+
+  @Test
+  public void retriesTransientFailures() throws IOException, GitAPIException {
+    this.project(2, 64 * 1024, "");
+    this.commit(1);
+    this.server.fail("upload", 503, 2).fail("versions", 502, 1).fail("publish", 503, 1);
+
+    final BuildResult result = this.publish();
+
+    assertEquals(1, this.server.published().size());
+    assertEquals(4, this.server.requests("upload"));
+    assertEquals(2, this.server.requests("publish"));
+    assertTrue(result.getOutput().contains("Retried requests to the API"), "retries should be reported");
+  }
+
+  @Test
+  public void uploadsLargeDownloadsInChunks() throws IOException, GitAPIException {
+    final List<Path> files = this.project(1, 1024 * 1024 + 17, "uploadChunkSize(256L * 1024)");
+    this.commit(1);
+
+    this.publish();
+
+    assertEquals(5, this.server.requests("upload"));
+    assertEquals(sha256(files.getFirst()), this.server.published().getFirst().downloads().get("download0").checksums().sha256());
+  }
+
+  @Test
+  public void resumesChunkedUploadsAfterTheLastAcknowledgedChunk() throws IOException, GitAPIException {
+    final List<Path> files = this.project(1, 1024 * 1024 + 17, "uploadChunkSize(256L * 1024)");
+    this.commit(1);
+    this.server.failAfter("upload", 2, 400, 1);
+    this.gradle(PublishToFillTask.NAME).buildAndFail();
+    assertEquals(3, this.server.requests("upload"));
+
+    this.publish();
+
+    assertEquals(6, this.server.requests("upload"), "acknowledged chunks should not be sent again");
+    assertEquals(sha256(files.getFirst()), this.server.published().getFirst().downloads().get("download0").checksums().sha256());
+  }
+
+  @Test
+  public void publishesAdditionalChecksums() throws IOException, GitAPIException {
+    final List<Path> files = this.project(2, 512 * 1024 + 3, """
+      uploadChunkSize(256L * 1024)
+        checksumAlgorithms(io.papermc.fill.gradle.checksum.ChecksumAlgorithm.SHA512, io.papermc.fill.gradle.checksum.ChecksumAlgorithm.CRC32C)
+        treeChecksumSegmentSize(128L * 1024)""");
+    this.commit(1);
+
+    this.publish();
+
+    final PublishRequest request = this.server.published().getFirst();
+    for (int i = 0; i < files.size(); i++) {
+      final Checksums checksums = request.downloads().get("download" + i).checksums();
+      final ByteSource source = com.google.common.io.Files.asByteSource(files.get(i).toFile());
+      assertEquals(source.hash(Hashing.sha256()).toString(), checksums.sha256());
+      assertEquals(source.hash(Hashing.sha512()).toString(), checksums.sha512());
+      assertEquals(String.format("%08x", source.hash(Hashing.crc32c()).asInt()), checksums.crc32c());
+      assertEquals(tree(files.get(i), 128 * 1024), checksums.tree());
+    }
+  }
+
+  @Test
+  public void retriesStalledUploads() throws IOException, GitAPIException {
+    this.project(1, 64 * 1024 * 1024, "uploadStallTimeout(Duration.ofSeconds(2))");
+    this.commit(1);
+    // more than the socket buffers hold, so sending stops while the server does not read
+    this.server.stall(Duration.ofSeconds(10), 1);
+
+    final BuildResult result = this.publish();
+
+    assertEquals(2, this.server.requests("upload"));
+    assertEquals(1, this.server.published().size());
+    assertTrue(result.getOutput().contains("Upload stalled"), "the stall should be reported");
+  }
+
+  @Test
+  public void cancelsUploadsAfterTheFirstFailure() throws IOException, GitAPIException {
+    this.project(4, 64 * 1024, "uploadConcurrency(1)");
+    this.commit(1);
+    this.server.fail("upload", 400, 1);
+
+    final BuildResult result = this.gradle(PublishToFillTask.NAME).buildAndFail();
+
+    assertEquals(1, this.server.requests("upload"), "uploads should stop after the first failure");
+    assertTrue(this.server.published().isEmpty());
+    assertTrue(result.getOutput().contains("Failed to upload"), "the failed upload should be reported");
+  }
+
+  @Test
+  public void failsWhenThePublishTimeoutPasses() throws IOException, GitAPIException {
+    this.project(4, 64 * 1024, """
+      uploadConcurrency(1)
+        publishTimeout(Duration.ofSeconds(2))""");
+    this.commit(1);
+    this.server.latency(Duration.ofSeconds(1));
+
+    final BuildResult result = this.gradle(PublishToFillTask.NAME).buildAndFail();
+
+    assertTrue(this.server.published().isEmpty());
+    assertEquals("failed", PublishToFillTask.MapperHolder.MAPPER.readTree(this.directory.resolve("build/fill/publish-report.json").toFile()).get("outcome").asText());
+    assertTrue(result.getOutput().contains("Failed after "), "the summary should report the failure");
+    assertTrue(result.getOutput().contains("The publish timeout passed"), "the timeout should be reported");
+  }
+
+  @Test
+  public void resumesSessionAfterFailedPublish() throws IOException, GitAPIException {
+    this.project(3, 64 * 1024, "");
+    this.commit(1);
+    this.server.fail("publish", 500, 1);
+    this.gradle(PublishToFillTask.NAME).buildAndFail();
+    assertEquals(3, this.server.requests("upload"));
+    assertTrue(this.server.published().isEmpty());
+
+    final BuildResult result = this.publish();
+
+    assertEquals(3, this.server.requests("upload"), "acknowledged uploads should not be sent again");
+    assertEquals(1, this.server.published().size());
+    assertTrue(result.getOutput().contains("Resuming publish session " + this.server.published().getFirst().id()), "the session should be resumed");
+    assertFalse(Files.exists(this.directory.resolve("build/fill/publish-journal")), "the journal should be deleted once published");
+  }
+
+  @Test
+  public void acceptsConflictsOnlyForResentPublishes() throws IOException, GitAPIException {
+    this.project(1, 1024, "");
+    this.commit(1);
+    this.server.losePublishes(1);
+    this.gradle(PublishToFillTask.NAME).buildAndFail();
+
+    // the first attempt got no answer, so a conflict means it published the build
+    final BuildResult result = this.publish();
+
+    assertTrue(result.getOutput().contains("was already published"), "the build should be taken as published");
+    assertEquals(1, this.server.published().size());
+  }
+
+  @Test
+  public void failsOnConflictsOfResumedSessionsThatDidNotPublish() throws IOException, GitAPIException {
+    this.project(1, 1024, "");
+    this.commit(1);
+    this.server.fail("upload", 400, 1);
+    this.gradle(PublishToFillTask.NAME).buildAndFail();
+    this.server.fail("publish", 409, 1);
+
+    // the session is resumed, but its publish request was never sent, so the conflict is another build's
+    final BuildResult result = this.gradle(PublishToFillTask.NAME).buildAndFail();
+
+    assertTrue(result.getOutput().contains("Resuming publish session"), "the session should be resumed");
+    assertTrue(result.getOutput().contains("Failed to post data to the API: 409"), "the conflict should fail the publish");
+    assertTrue(this.server.published().isEmpty());
+  }
+
+  @Test
+  public void startsANewSessionForAnotherApi() throws IOException, GitAPIException {
+    this.project(2, 64 * 1024, "");
+    this.commit(1);
+    this.server.fail("publish", 500, 1);
+    this.gradle(PublishToFillTask.NAME).buildAndFail();
+
+    try (final FakeFillServer other = FakeFillServer.start(TOKEN)) {
+      final Path build = this.directory.resolve("build.gradle.kts");
+      Files.writeString(build, Files.readString(build).replace(this.server.url().toString(), other.url().toString()));
+
+      final BuildResult result = this.publish();
+
+      assertEquals(2, other.requests("upload"), "uploads acknowledged by another api should be sent again");
+      assertEquals(1, other.published().size());
+      assertFalse(result.getOutput().contains("Resuming publish session"), "the session of another api should not be resumed");
+    }
+  }
+
+  @Test
+  public void skipsDownloadsTheApiAlreadyHas() throws IOException, GitAPIException {
+    this.project(3, 64 * 1024, "deduplicateUploads(true)");
+    this.commit(1);
+    this.publish();
+    final int uploads = this.server.requests("upload");
+
+    this.publish();
+
+    assertEquals(uploads, this.server.requests("upload"));
+    assertEquals(2, this.server.published().size());
+    assertEquals(this.server.published().get(0).downloads(), this.server.published().get(1).downloads());
+  }
+
+  @Test
+  public void warnsAboutIgnoredClientSettingsOfLaterProjects() throws IOException, GitAPIException {
+    this.project(1, 1024, "connectTimeout(Duration.ofSeconds(30))");
+    Files.writeString(this.directory.resolve("settings.gradle.kts"), "include(\"other\")\n", StandardOpenOption.APPEND);
+    Files.createDirectories(this.directory.resolve("other"));
+    Files.writeString(this.directory.resolve("other/build.gradle.kts"), """
+      import java.time.Duration
+
+      plugins {
+        id("io.papermc.fill.gradle")
+      }
+
+      fill {
+        connectTimeout(Duration.ofSeconds(5))
+      }
+      """);
+
+    final BuildResult result = this.gradle("help").build();
+
+    assertTrue(result.getOutput().contains("The fill connectTimeout of :other is PT5S, but the client shared by all projects uses PT30S"), "the ignored setting should be reported");
+    assertFalse(result.getOutput().contains("The fill connectTimeout of : "), "the first project configures the client");
+  }
+
+  @Test
+  public void uploadsWithASingleWorker() throws IOException, GitAPIException {
+    final int downloads = 3;
+    this.project(downloads, 64 * 1024, "uploadConcurrency(4)");
+    this.commit(1);
+
+    // the task holds the only worker lease until it waits for the uploads
+    this.publish("--max-workers=1");
+
+    assertEquals(downloads, this.server.objects().size());
+    assertEquals(1, this.server.published().size());
+  }
+
+  @Test
+  public void adaptsUploadConcurrency() throws IOException, GitAPIException {
+    final int downloads = 16;
+    this.project(downloads, 64 * 1024, """
+      uploadConcurrency(4)
+        adaptiveUploadConcurrency(true)""");
+    this.commit(1);
+    this.server.latency(Duration.ofMillis(200)).failAfter("upload", 8, 429, 1);
+
+    this.publish("--max-workers=8");
+
+    assertEquals(downloads, this.server.objects().size());
+    assertTrue(this.server.maxActiveUploads() <= 4, "at most 4 uploads should run at the same time, was " + this.server.maxActiveUploads());
+    assertTrue(this.server.maxActiveUploads() >= 2, "more uploads should run once the api keeps up");
+    final JsonNode concurrency = PublishToFillTask.MapperHolder.MAPPER.readTree(this.directory.resolve("build/fill/publish-report.json").toFile()).get("concurrency");
+    boolean increased = false;
+    boolean decreased = false;
+    for (final JsonNode decision : concurrency) {
+      increased |= decision.get("to").asInt() > decision.get("from").asInt();
+      decreased |= decision.get("to").asInt() < decision.get("from").asInt() && decision.get("reason").asText().equals("status 429");
+    }
+    assertTrue(increased, "the concurrency should increase: " + concurrency);
+    assertTrue(decreased, "the concurrency should decrease on 429: " + concurrency);
+  }
+
+  @Test
+  public void limitsUploadBandwidth() throws IOException, GitAPIException {
+    this.project(3, 1024 * 1024, """
+      uploadConcurrency(3)
+        uploadBandwidth(1024L * 1024, 256L * 1024)""");
+    this.commit(1);
+
+    this.publish("--max-workers=4");
+
+    assertEquals(3, this.server.objects().size());
+    final JsonNode report = PublishToFillTask.MapperHolder.MAPPER.readTree(this.directory.resolve("build/fill/publish-report.json").toFile());
+    // the uploads share the bandwidth, 3 MB at 1 MB/s after a burst of 256 KB
+    final long uploads = report.get("phases").get("uploads").asLong();
+    assertTrue(uploads >= 2_500, "uploads should share the bandwidth, took " + uploads + " ms");
+  }
+
+  @Test
+  public void logsUploadProgressWithoutProgressLoggers() throws IOException, GitAPIException {
+    this.project(1, 3 * 1024 * 1024, "uploadBandwidth(1024L * 1024, 256L * 1024)");
+    this.commit(1);
+
+    final BuildResult result = this.publish("-P" + PublishToFillTask.PROGRESS_LOGGERS + "=false", "--info");
+
+    assertTrue(result.getOutput().contains("Uploading paper-1.21.1-1-download0.jar: "), "the status of the upload should be logged");
+  }
+
+  @Test
+  public void uploadsConcurrentlyUnderLatency() throws IOException, GitAPIException {
+    final int downloads = 12;
+    this.project(downloads, 1024 * 1024, "uploadConcurrency(4)");
+    this.commit(1);
+    this.server.latency(Duration.ofMillis(300)).bandwidth(8 * 1024 * 1024);
+
+    this.publish("--max-workers=8");
+
+    assertEquals(downloads, this.server.objects().size());
+    // every upload waits on the latency, so the server sees as many at once as may run
+    assertEquals(4, this.server.maxActiveUploads(), "4 uploads should run at the same time");
+    assertEquals(downloads, this.server.requests("upload"));
+    final JsonNode report = PublishToFillTask.MapperHolder.MAPPER.readTree(this.directory.resolve("build/fill/publish-report.json").toFile());
+    assertEquals("published", report.get("outcome").asText());
+    assertEquals(downloads, report.get("artifacts").size());
+  }
+
+  @Test
+  public void flushesStagedBuildsInOrder() throws IOException, GitAPIException {
+    this.project(2, 64 * 1024, "");
+    this.commit(2);
+    this.gradle(PublishToFillTask.STAGE_NAME).build();
+    this.commit(1);
+    assertTrue(this.gradle(PublishToFillTask.STAGE_NAME).build().getOutput().contains("Staged in "), "the summary should report the stage");
+    assertEquals("staged", PublishToFillTask.MapperHolder.MAPPER.readTree(this.directory.resolve("build/fill/stage-report.json").toFile()).get("outcome").asText());
+    assertEquals(0, this.server.requests("upload"));
+    assertEquals(0, this.server.requests("publish"));
+
+    // a failed upload stops the flush, running it again only sends what is missing
+    this.server.fail("upload", 400, 1);
+    this.gradle(FlushFillSpoolTask.NAME).buildAndFail();
+    assertEquals(0, this.server.requests("publish"));
+    this.gradle(FlushFillSpoolTask.NAME).build();
+
+    final List<PublishRequest> published = this.server.published();
+    assertEquals(2, published.size());
+    assertEquals(List.of("Commit 0", "Commit 1"), published.get(0).commits().stream().map(Commit::message).toList());
+    assertEquals(List.of("Commit 2"), published.get(1).commits().stream().map(Commit::message).toList());
+    assertEquals(5, this.server.requests("upload"));
+    try (final Stream<Path> spool = Files.list(this.directory.resolve(".gradle/fill-spool"))) {
+      assertEquals(0, spool.count());
+    }
+  }
+
+  @Test
+  public void acceptsConflictsOnlyForResentStagedBuilds() throws IOException, GitAPIException {
+    this.project(1, 1024, "");
+    this.commit(1);
+    this.gradle(PublishToFillTask.STAGE_NAME).build();
+    this.server.losePublishes(1);
+
+    this.gradle(FlushFillSpoolTask.NAME).buildAndFail();
+    // the first flush got no answer, so a conflict means it published the build
+    final BuildResult result = this.gradle(FlushFillSpoolTask.NAME).build();
+
+    assertTrue(result.getOutput().contains("was already published"), "the build should be taken as published");
+    assertEquals(1, this.server.published().size());
+    try (final Stream<Path> spool = Files.list(this.directory.resolve(".gradle/fill-spool"))) {
+      assertEquals(0, spool.count());
+    }
+  }
+
+  @Test
+  public void failsOnConflictsAfterAnAnsweredFlush() throws IOException, GitAPIException {
+    this.project(1, 1024, "");
+    this.commit(1);
+    this.gradle(PublishToFillTask.STAGE_NAME).build();
+    this.server.fail("publish", 409, 2);
+
+    this.gradle(FlushFillSpoolTask.NAME).buildAndFail();
+    // the api answered the first flush, so the conflict is another build's
+    final BuildResult result = this.gradle(FlushFillSpoolTask.NAME).buildAndFail();
+
+    assertTrue(result.getOutput().contains("Failed to publish staged build"), "the conflict should fail the flush");
+    try (final Stream<Path> spool = Files.list(this.directory.resolve(".gradle/fill-spool"))) {
+      assertEquals(1, spool.count());
+    }
+  }
+
+  @Test
+  public void publishesStagedFilesAfterTheyAreRebuilt() throws IOException, GitAPIException {
+    final List<Path> files = this.project(1, 64 * 1024, "");
+    this.commit(1);
+    final String staged = sha256(files.getFirst());
+    this.gradle(PublishToFillTask.STAGE_NAME).build();
+    Files.writeString(files.getFirst(), "rebuilt");
+
+    this.gradle(FlushFillSpoolTask.NAME).build();
+
+    assertEquals(staged, this.server.published().getFirst().downloads().get("download0").checksums().sha256());
+  }
+
+  @Test
+  public void verifiesStagedFilesBeforeUploading() throws IOException, GitAPIException {
+    this.project(1, 64 * 1024, "");
+    this.commit(1);
+    this.gradle(PublishToFillTask.STAGE_NAME).build();
+    try (final Stream<Path> files = Files.walk(this.directory.resolve(".gradle/fill-spool"))) {
+      final Path file = files.filter(path -> path.getFileName().toString().endsWith("download0.jar")).findFirst().orElseThrow();
+      final byte[] bytes = Files.readAllBytes(file);
+      bytes[0] ^= 1;
+      Files.write(file, bytes);
+    }
+
+    final BuildResult result = this.gradle(FlushFillSpoolTask.NAME).buildAndFail();
+
+    assertTrue(result.getOutput().contains("does not match the staged request"), "the damaged file should be reported");
+    assertEquals(0, this.server.requests("upload"));
+  }
+
+  @Test
+  public void stagesWithoutAnApiToken() throws IOException, GitAPIException {
+    this.project(1, 1024, "");
+    final Path script = this.directory.resolve("build.gradle.kts");
+    Files.writeString(script, Files.readString(script).replace("apiToken(\"" + TOKEN + "\")", ""));
+    this.commit(1);
+
+    this.gradle(PublishToFillTask.STAGE_NAME).build();
+
+    assertEquals(0, this.server.requests("upload"));
+    try (final Stream<Path> spool = Files.list(this.directory.resolve(".gradle/fill-spool"))) {
+      assertEquals(1, spool.count());
+    }
+    final BuildResult result = this.gradle(PublishToFillTask.NAME).buildAndFail();
+    assertTrue(result.getOutput().contains("API token is not present"), "publishing should still need a token");
+  }
+
+  private List<Path> project(final int downloads, final long size, final String settings) throws IOException, GitAPIException {
+    Git.init().setDirectory(this.directory.toFile()).setInitialBranch("main").call().close();
+    Files.writeString(this.directory.resolve(".gitignore"), "/.gradle/\n/build/\n");
+    Files.writeString(this.directory.resolve("settings.gradle.kts"), "rootProject.name = \"fill-test\"\n");
+    final Random random = new Random(size);
+    final List<Path> files = new ArrayList<>();
+    final StringBuilder registrations = new StringBuilder();
+    for (int i = 0; i < downloads; i++) {
+      final Path file = this.directory.resolve("download" + i + ".jar");
+      try (final OutputStream out = Files.newOutputStream(file)) {
+        final byte[] bytes = new byte[(int) size];
+        random.nextBytes(bytes);
+        out.write(bytes);
+      }
+      files.add(file);
+      registrations.append("""
+              register("download%1$d") {
+                file = layout.projectDirectory.file("download%1$d.jar")
+                nameResolver.set { project, _, version, build -> "$project-$version-$build-download%1$d.jar" }
+              }
+        """.formatted(i));
+    }
+    Files.writeString(this.directory.resolve("build.gradle.kts"), """
+      import io.papermc.fill.model.BuildChannel
+      import java.time.Duration
+
+      plugins {
+        id("io.papermc.fill.gradle")
+      }
+
+      fill {
+        apiUrl("%s")
+        apiToken("%s")
+        project("paper")
+        versionFamily("1.21")
+        version("1.21.1")
+        %s
+
+        retry {
+          baseDelay = Duration.ofMillis(10)
+        }
+
+        build {
+          id = 1
+          channel = BuildChannel.STABLE
+
+          downloads {
+      %s
+          }
+        }
+      }
+      """.formatted(this.server.url(), TOKEN, settings, registrations));
+    return files;
+  }
+
+  private void commit(final int count) throws IOException, GitAPIException {
+    try (final Git git = Git.open(this.directory.toFile())) {
+      for (int i = 0; i < count; i++) {
+        git.commit()
+          .setAllowEmpty(true)
+          .setSign(false)
+          .setAuthor(AUTHOR)
+          .setCommitter(AUTHOR)
+          .setMessage("Commit " + this.commits++)
+          .call();
+      }
+    }
+  }
+
+  private String head(final int parents) throws IOException {
+    try (final Git git = Git.open(this.directory.toFile())) {
+      return git.getRepository().resolve("HEAD~" + parents).name();
+    }
+  }
+
+  private BuildResult publish(final String... arguments) {
+    return this.gradle(PublishToFillTask.NAME, arguments).build();
+  }
+
+  private GradleRunner gradle(final String task, final String... arguments) {
+    final List<String> args = new ArrayList<>(List.of(task, "--configuration-cache", "--stacktrace"));
+    args.addAll(List.of(arguments));
+    return GradleRunner.create()
+      .withProjectDir(this.directory.toFile())
+      .withPluginClasspath()
+      .withArguments(args)
+      .forwardOutput();
+  }
+
+  private static TreeChecksum tree(final Path file, final int segmentSize) throws IOException {
+    final byte[] bytes = Files.readAllBytes(file);
+    List<HashCode> level = new ArrayList<>();
+    for (int offset = 0; offset < bytes.length; offset += segmentSize) {
+      level.add(Hashing.sha256().newHasher().putByte((byte) 0).putBytes(bytes, offset, Math.min(segmentSize, bytes.length - offset)).hash());
+    }
+    final List<String> segments = level.stream().map(HashCode::toString).toList();
+    while (level.size() > 1) {
+      final List<HashCode> parents = new ArrayList<>();
+      for (int i = 0; i < level.size(); i += 2) {
+        parents.add(i + 1 < level.size() ? Hashing.sha256().newHasher().putByte((byte) 1).putBytes(level.get(i).asBytes()).putBytes(level.get(i + 1).asBytes()).hash() : level.get(i));
+      }
+      level = parents;
+    }
+    return new TreeChecksum(segmentSize, level.getFirst().toString(), segments);
+  }
+
+  private static String sha256(final Path file) throws IOException {
+    return com.google.common.io.Files.asByteSource(file.toFile()).hash(Hashing.sha256()).toString();
+  }
+}